@@ -1 +1 @@
-javac -cp src -d bin src/com/wolfesoftware/mipsos/debugger/Debugger.java
+javac -cp src -d bin src/com/wolfesoftware/mipsos/debugger/Debugger.java src/com/wolfesoftware/mipsos/simulator/BatchRunner.java src/com/wolfesoftware/mipsos/simulator/SimulationHost.java src/com/wolfesoftware/mipsos/debugger/TraceQuery.java
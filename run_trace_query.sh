@@ -0,0 +1 @@
+java -cp $(dirname $0)/bin/ com.wolfesoftware.mipsos.debugger.TraceQuery "$@"
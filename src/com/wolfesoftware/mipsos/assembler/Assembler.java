@@ -41,11 +41,16 @@ public class Assembler
     public static byte[] assembleToBytes(String inputPath, AssemblerOptions options) throws AssemblingException, IOException
     {
         ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-        options.outStream = outStream;
-        assemble(inputPath, options);
+        // leave the options alone. other threads might be assembling with them too.
+        assemble(inputPath, options, outStream);
         return outStream.toByteArray();
     }
     public static void assemble(String inputPath, AssemblerOptions options) throws AssemblingException, IOException
+    {
+        assemble(inputPath, options, options.outStream);
+    }
+    /** writes to outStream instead of options.outStream */
+    public static void assemble(String inputPath, AssemblerOptions options, OutputStream outStream) throws AssemblingException, IOException
     {
         InputStream inStream = new FileInputStream(inputPath);
         // read input stream
@@ -106,7 +111,7 @@ public class Assembler
         // output
         if (options.readable) {
             // header
-            PrintStream printStream = new PrintStream(options.outStream);
+            PrintStream printStream = new PrintStream(outStream);
             printStream.println("; header");
             byte[] bytes = binarization.header.getBinary(binarization.labels, -1);
             int wordCounter = 0;
@@ -151,7 +156,7 @@ public class Assembler
 
             Segment[] segmentsArray = segments.toArray(new Segment[segments.size()]);
             ExecutableBinary binary = new ExecutableBinary(segmentsArray);
-            binary.encode(options.outStream);
+            binary.encode(outStream);
         }
     }
 
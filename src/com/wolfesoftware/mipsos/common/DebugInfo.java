@@ -70,6 +70,14 @@ public class DebugInfo
             throw null;
         }
     }
+    /** null if the binary was assembled without debug info */
+    public static DebugInfo fromBinary(ExecutableBinary binary)
+    {
+        for (Segment segment : binary.segments)
+            if (Arrays.equals(segment.attributes.get(Segment.ATTRIBUTE_TYPE), Segment.TYPE_DEBUGINFO))
+                return fromSegment(segment);
+        return null;
+    }
     public static DebugInfo fromSegment(Segment segment)
     {
         try {
@@ -0,0 +1,18 @@
+package com.wolfesoftware.mipsos.debugger;
+
+import com.wolfesoftware.mipsos.simulator.Simulator;
+
+/** a fork of the simulator that never runs. going back to it means forking it again. */
+public class Checkpoint
+{
+    public final Simulator simulator;
+    public final long instructionCount;
+    /** how much of the input history had been eaten by then */
+    public final int inputPosition;
+    public Checkpoint(Simulator simulator, int inputPosition)
+    {
+        this.simulator = simulator;
+        this.instructionCount = simulator.getInstructionCount();
+        this.inputPosition = inputPosition;
+    }
+}
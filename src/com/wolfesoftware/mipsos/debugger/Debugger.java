@@ -25,20 +25,14 @@ public class Debugger
         // assemble source
         ExecutableBinary binary = Assembler.assembleToBinary(inputPath, debuggerOptions.simulatorOptions.assemblerOptions);
         // grab the debug info
-        DebugInfo debugInfo = null;
-        for (Segment segment : binary.segments) {
-            if (Arrays.equals(segment.attributes.get(Segment.ATTRIBUTE_TYPE), Segment.TYPE_DEBUGINFO)) {
-                debugInfo = DebugInfo.fromSegment(segment);
-                break;
-            }
-        }
+        DebugInfo debugInfo = DebugInfo.fromBinary(binary);
 
         // init the simualtor (provide the listener later)
         Simulator simulator = new Simulator(debuggerOptions.simulatorOptions, null);
         simulator.loadBinary(binary);
 
         // init the debugger (including setting the listener)
-        Debugger debugger = new Debugger(simulator, debugInfo);
+        Debugger debugger = new Debugger(simulator, debugInfo, debuggerOptions.checkpointInterval);
         for (String breakAt : debuggerOptions.breakAt) {
             if (breakAt.startsWith("0x")) {
                 // address
@@ -50,14 +44,16 @@ public class Debugger
                 debugger.setBreakpointAtLine(lineNumber);
             }
         }
-        if (debuggerOptions.stdinFile != null)
-            debugger.setStdinFile(debuggerOptions.stdinFile);
+        if (debuggerOptions.simulatorOptions.stdinFile != null)
+            debugger.setStdinFile(debuggerOptions.simulatorOptions.stdinFile);
 
         // pass control to the debugger's terminal interface
         debugger.cliMain(debuggerOptions.run);
     }
 
-    private final Simulator simulator;
+    /** replaced with a fork of a checkpoint when going backwards */
+    private volatile Simulator simulator;
+    private final ISimulatorListener listener;
     private final DebugInfo debugInfo;
     private final String[] sourceLines;
     private final BlockingEvent needUserActionEvent = new BlockingEvent(true);
@@ -71,15 +67,26 @@ public class Debugger
         }
     };
     private final LinkedBlockingQueue<Character> stdinQueue = new LinkedBlockingQueue<Character>();
-    private final HashSet<Integer> breakpoints = new HashSet<Integer>();
-    private boolean pausing;
+    private volatile boolean pausing;
+    /** everything the program has ever read, so that going back and running forward again reads the same things */
+    private final StringBuilder inputHistory = new StringBuilder();
+    /** how much of the input history the current simulator has read */
+    private int inputPosition = 0;
+    /** output was already printed the first time through */
+    private boolean replaying = false;
+    private final int checkpointInterval;
+    /** past this, every other checkpoint gets dropped, so old history gets sparser instead of eating all the memory */
+    private static final int MAX_CHECKPOINTS = 64;
+    /** in order of instruction count. the first one is the start of the program. */
+    private final ArrayList<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
 
-    public Debugger(Simulator simulator, DebugInfo debugInfo)
+    public Debugger(Simulator simulator, DebugInfo debugInfo, int checkpointInterval)
     {
         this.simulator = simulator;
         this.debugInfo = debugInfo;
+        this.checkpointInterval = checkpointInterval;
         this.sourceLines = Util.readLines(debugInfo.inputPath);
-        simulator.listener = new ISimulatorListener() {
+        listener = new ISimulatorListener() {
             @Override
             public char readCharacter()
             {
@@ -90,7 +97,20 @@ public class Debugger
             {
                 internalPrintCharacter(c);
             }
+            @Override
+            public void printBytes(byte[] bytes, int offset, int length)
+            {
+                internalPrintBytes(bytes, offset, length);
+            }
+            @Override
+            public void flush()
+            {
+                System.out.flush();
+            }
         };
+        simulator.listener = listener;
+        if (checkpointInterval != 0)
+            checkpoints.add(new Checkpoint(simulator.fork(listener), inputPosition));
         simulatorThread = new Thread(new Runnable() {
             @Override
             public void run()
@@ -158,8 +178,10 @@ public class Debugger
             @Override
             public void run()
             {
-                for (int i = 0; i < count && !pausing; i++)
+                for (int i = 0; i < count && !pausing; i++) {
                     simulator.step();
+                    checkpoint();
+                }
 
                 finishLongOperation();
             }
@@ -178,13 +200,18 @@ public class Debugger
             @Override
             public void run()
             {
-                for (int i = simulator.getClock(); until == -1 || i < until; i++) {
-                    SimulatorStatus simulatorStatus = simulator.step();
-                    if (simulatorStatus != SimulatorStatus.Ready)
-                        break;
-                    if (breakpoints.contains(simulator.getPc()))
-                        break;
-                    if (pausing)
+                // stop every so often to take a checkpoint
+                long chunk = checkpointInterval != 0 ? checkpointInterval : Long.MAX_VALUE;
+                while (true) {
+                    long budget = chunk;
+                    if (until != -1) {
+                        if (simulator.getClock() >= until)
+                            break;
+                        budget = Math.min(budget, until - simulator.getClock());
+                    }
+                    StopReason reason = simulator.run(budget);
+                    checkpoint();
+                    if (reason != StopReason.Budget)
                         break;
                 }
 
@@ -192,9 +219,48 @@ public class Debugger
             }
         });
     }
+    public void reverseStep(final int count)
+    {
+        if (count <= 0) {
+            System.out.println("* ERROR: can't step backwards " + count + " instructions");
+            return;
+        }
+        if (!canGoBackwards())
+            return;
+        beginLongOperation();
+
+        Util.put(simulatorActions, new Runnable() {
+            @Override
+            public void run()
+            {
+                long target = Math.max(simulator.getInstructionCount() - count, checkpoints.get(0).instructionCount);
+                goBackTo(target);
+
+                finishLongOperation();
+            }
+        });
+    }
+    /** goes back to the last time the pc was at a breakpoint, or to the start if it never was */
+    public void reverseGo()
+    {
+        if (!canGoBackwards())
+            return;
+        beginLongOperation();
+
+        Util.put(simulatorActions, new Runnable() {
+            @Override
+            public void run()
+            {
+                reverseGoInternal();
+
+                finishLongOperation();
+            }
+        });
+    }
     public void pause()
     {
         pausing = true;
+        simulator.pause();
     }
 
     private void beginLongOperation()
@@ -205,9 +271,103 @@ public class Debugger
     private void finishLongOperation()
     {
         pausing = false;
+        // a pause during a step or going backwards never got to a run() to stop
+        simulator.clearPause();
         needUserActionEvent.set();
     }
 
+    private boolean canGoBackwards()
+    {
+        if (checkpointInterval == 0) {
+            System.out.println("* ERROR: checkpoints are turned off");
+            return false;
+        }
+        if (simulator.getStatus() == SimulatorStatus.Stdin) {
+            // the simulator thread is stuck in the middle of a syscall
+            System.out.println("* ERROR: can't go backwards while blocking on stdin");
+            return false;
+        }
+        return true;
+    }
+    /** takes a checkpoint if it's been long enough since the last one */
+    private void checkpoint()
+    {
+        if (checkpoints.isEmpty())
+            return;
+        // if we've been back in time, the checkpoints up ahead are still good
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        if (simulator.getInstructionCount() - last.instructionCount < checkpointInterval)
+            return;
+        checkpoints.add(new Checkpoint(simulator.fork(listener), inputPosition));
+        if (checkpoints.size() > MAX_CHECKPOINTS) {
+            // keep the start and the latest one
+            for (int i = checkpoints.size() - 2; i > 0; i -= 2)
+                checkpoints.remove(i);
+        }
+    }
+    /** the index of the last checkpoint at or before the instruction count, or -1 */
+    private int checkpointIndexBefore(long instructionCount)
+    {
+        int index = checkpoints.size() - 1;
+        while (index >= 0 && checkpoints.get(index).instructionCount > instructionCount)
+            index--;
+        return index;
+    }
+    /** starts from a checkpoint and runs quietly until the instruction count gets to the target */
+    private void goBackTo(long target)
+    {
+        Checkpoint checkpoint = checkpoints.get(checkpointIndexBefore(target));
+        Simulator replay = resume(checkpoint);
+        replaying = true;
+        try {
+            while (replay.getInstructionCount() < target)
+                replay.step();
+        } finally {
+            replaying = false;
+        }
+        for (int address : simulator.getBreakpoints())
+            replay.addBreakpoint(address);
+        simulator = replay;
+    }
+    private void reverseGoInternal()
+    {
+        int startInputPosition = inputPosition;
+        HashSet<Integer> breakpoints = new HashSet<Integer>(simulator.getBreakpoints());
+        // look through one checkpoint interval at a time, latest first
+        long end = simulator.getInstructionCount();
+        for (int i = checkpointIndexBefore(end - 1); i >= 0; i--) {
+            Checkpoint checkpoint = checkpoints.get(i);
+            Simulator replay = resume(checkpoint);
+            long found = -1;
+            replaying = true;
+            try {
+                while (replay.getInstructionCount() < end && !pausing) {
+                    if (breakpoints.contains(replay.getPc()))
+                        found = replay.getInstructionCount();
+                    replay.step();
+                }
+            } finally {
+                replaying = false;
+            }
+            if (pausing) {
+                // never mind
+                inputPosition = startInputPosition;
+                return;
+            }
+            if (found != -1) {
+                goBackTo(found);
+                return;
+            }
+            end = checkpoint.instructionCount;
+        }
+        goBackTo(checkpoints.get(0).instructionCount);
+    }
+    private Simulator resume(Checkpoint checkpoint)
+    {
+        inputPosition = checkpoint.inputPosition;
+        return checkpoint.simulator.fork(listener);
+    }
+
     private void setStdinFile(String stdinFile)
     {
         input(Util.readFile(stdinFile));
@@ -230,11 +390,11 @@ public class Debugger
     }
     public void setBreakpointAtAddress(int address)
     {
-        breakpoints.add(address);
+        simulator.addBreakpoint(address);
     }
     private boolean isBreakpointAtLine(int lineNumber)
     {
-        for (int address : breakpoints)
+        for (int address : simulator.getBreakpoints())
             if (debugInfo.addressToLine(address) == lineNumber)
                 return true;
         return false;
@@ -243,15 +403,28 @@ public class Debugger
 
     private char internalReadCharacter()
     {
+        if (inputPosition < inputHistory.length()) {
+            // been here before
+            return inputHistory.charAt(inputPosition++);
+        }
         if (stdinQueue.isEmpty()) {
             // now blocking on stdin
             finishLongOperation();
         }
-        return Util.take(stdinQueue);
+        char c = Util.take(stdinQueue);
+        inputHistory.append(c);
+        inputPosition++;
+        return c;
     }
     private void internalPrintCharacter(char c)
     {
-        System.out.print(c);
+        if (!replaying)
+            System.out.print(c);
+    }
+    private void internalPrintBytes(byte[] bytes, int offset, int length)
+    {
+        if (!replaying)
+            System.out.write(bytes, offset, length);
     }
     private class Cli
     {
@@ -432,7 +605,7 @@ public class Debugger
                 {
                     if (args.length == 0) {
                         // list
-                        for (int address : breakpoints) {
+                        for (int address : simulator.getBreakpoints()) {
                             String printThis;
                             try {
                                 int lineNumber = debugInfo.addressToLine(address);
@@ -444,8 +617,8 @@ public class Debugger
                         }
                     } else if (args.length == 1 && args[0].equals("-")) {
                         // remove all
-                        int count = breakpoints.size();
-                        breakpoints.clear();
+                        int count = simulator.getBreakpoints().size();
+                        simulator.clearBreakpoints();
                         System.out.println("* all " + count + " breakpoint" + (count != 1 ? "s" : "") + " deleted");
                     } else {
                         // toggle
@@ -463,7 +636,7 @@ public class Debugger
                                     System.err.println("* WARNING: word-aligning address: " + Util.addressToString(address));
                                     address &= ~3;
                                 }
-                                if (breakpoints.remove(address)) {
+                                if (simulator.removeBreakpoint(address)) {
                                     // removed
                                     try {
                                         int lineNumber = debugInfo.addressToLine(address);
@@ -473,7 +646,7 @@ public class Debugger
                                     }
                                 } else {
                                     // add
-                                    breakpoints.add(address);
+                                    simulator.addBreakpoint(address);
                                     try {
                                         int lineNumber = debugInfo.addressToLine(address);
                                         System.out.println("* breakpoint created: " + lineNumber + " [" + Util.addressToString(address) + "]");
@@ -494,12 +667,12 @@ public class Debugger
                                 try {
                                     int address = debugInfo.lineToAddress(lineNumber);
                                     lineNumber = debugInfo.addressToLine(address);
-                                    if (breakpoints.remove(address)) {
+                                    if (simulator.removeBreakpoint(address)) {
                                         // removed
                                         System.out.println("* breakpoint deleted: " + lineNumber + " [" + Util.addressToString(address) + "]");
                                     } else {
                                         // add
-                                        breakpoints.add(address);
+                                        simulator.addBreakpoint(address);
                                         System.out.println("* breakpoint created: " + lineNumber + " [" + Util.addressToString(address) + "]");
                                     }
                                 } catch (IllegalArgumentException e) {
@@ -538,8 +711,8 @@ public class Debugger
                 public void run(String[] args)
                 {
                     if (args.length == 0) {
-                        // print uneaten buffer
-                        System.out.print(Util.toString(stdinQueue));
+                        // print uneaten buffer, including what'll get read again after going backwards
+                        System.out.print(inputHistory.substring(inputPosition) + Util.toString(stdinQueue));
                     } else {
                         // add to buffer
                         input(args[0] + "\n");
@@ -656,6 +829,28 @@ public class Debugger
                     pause();
                 }
             });
+            registerCommand(Util.varargs("rg", "reverse-go", "reverse-continue"), new Command() {
+                @Override
+                public void run(String[] args)
+                {
+                    reverseGo();
+                }
+            });
+            registerCommand(Util.varargs("rs", "reverse-step"), new Command(0, 1) {
+                @Override
+                public void run(String[] args)
+                {
+                    int count = 1;
+                    if (args.length != 0) {
+                        try {
+                            count = evalInt(args[0]);
+                        } catch (NumberFormatException e) {
+                            System.err.println(e);
+                        }
+                    }
+                    reverseStep(count);
+                }
+            });
             registerCommand(Util.varargs("r", "reg", "registers"), new Command(0, 1) {
                 private Registers previousRegisters = null;
                 @Override
@@ -11,12 +11,16 @@ public class DebuggerOptions extends Options
 
     public Boolean run;
     public ArrayList<String> breakAt = new ArrayList<String>();
-    public String stdinFile = null;
+    /** instructions between checkpoints for going backwards. 0 turns it off. */
+    public Integer checkpointInterval;
 
     public void parse(LinkedList<String> args)
     {
         simulatorOptions = new SimulatorOptions();
         simulatorOptions.parse(args, true);
+        // going backwards swaps in simulators that aren't traced
+        if (simulatorOptions.traceFile != null)
+            throw new RuntimeException("--trace isn't supported in the debugger");
 
         // none of our own args yet
         Iterator<String> iterator = args.iterator();
@@ -31,8 +35,8 @@ public class DebuggerOptions extends Options
             } else if (arg.startsWith("--break=")) {
                 breakAt.add(arg.substring("--break=".length()));
                 iterator.remove();
-            } else if (arg.startsWith("--stdin-file=")) {
-                stdinFile = arg.substring("--stdin-file=".length());
+            } else if (arg.startsWith("--checkpoint-interval=")) {
+                checkpointInterval = Integer.parseInt(arg.substring("--checkpoint-interval=".length()));
                 iterator.remove();
             }
         }
@@ -43,5 +47,11 @@ public class DebuggerOptions extends Options
     {
         if (run == null)
             run = true;
+        if (checkpointInterval == null) {
+            // mapped memory can't fork
+            checkpointInterval = simulatorOptions.memory.equals(SimulatorOptions.MEMORY_MAPPED) ? 0 : 1000000;
+        }
+        if (checkpointInterval < 0)
+            throw new RuntimeException("checkpoint interval can't be negative");
     }
 }
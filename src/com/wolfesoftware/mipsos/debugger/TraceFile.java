@@ -0,0 +1,201 @@
+package com.wolfesoftware.mipsos.debugger;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.*;
+
+import com.wolfesoftware.mipsos.simulator.Tracer;
+
+/**
+ * reads what {@link Tracer} writes. the file is mapped, not read, and opening it only looks at the block headers.
+ * every block starts with the whole register file, so they make an index of checkpoints to start decoding from.
+ */
+public class TraceFile
+{
+    /** raw length, compressed length, first instruction, instruction count, pc, registers */
+    private static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 4 * Tracer.REGISTER_COUNT;
+    /** mappings are limited to 2GB, so big traces get mapped in pieces */
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    public interface Visitor
+    {
+        /** a memory write by the instruction about to be reported. the bytes are only good until the call returns. */
+        void store(long index, int address, byte[] bytes, int offset, int length);
+        /** registers as of after the instruction, with hi and lo at the end. return false to stop. */
+        boolean instruction(long index, int pc, int[] registers);
+    }
+
+    private static class Block
+    {
+        public final ByteBuffer window;
+        public final int offset;
+        public final int rawLength;
+        public final int compressedLength;
+        public final long firstInstruction;
+        public final int instructionCount;
+        public Block(ByteBuffer window, int offset)
+        {
+            this.window = window;
+            this.offset = offset;
+            rawLength = window.getInt(offset);
+            compressedLength = window.getInt(offset + 4);
+            firstInstruction = window.getLong(offset + 8);
+            instructionCount = window.getInt(offset + 16);
+        }
+    }
+
+    private final ArrayList<Block> blocks = new ArrayList<Block>();
+    public final long instructionCount;
+    private final Inflater inflater = new Inflater();
+    private byte[] raw = new byte[0];
+    private int cursor;
+
+    public TraceFile(String path)
+    {
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW_SIZE));
+                if (size < 8 || window.getInt(0) != Tracer.MAGIC_NUMBER)
+                    throw new RuntimeException("not a trace: " + path);
+                if (window.getInt(4) != Tracer.VERSION)
+                    throw new RuntimeException("unsupported trace version: " + window.getInt(4));
+                long windowStart = 0;
+                long position = 8;
+                while (position + BLOCK_HEADER_SIZE <= size) {
+                    if (position + BLOCK_HEADER_SIZE > windowStart + window.capacity()) {
+                        // start a new window at this block
+                        windowStart = position;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(size - windowStart, WINDOW_SIZE));
+                    }
+                    long end = position + BLOCK_HEADER_SIZE + window.getInt((int)(position - windowStart) + 4);
+                    if (end > size)
+                        break; // cut off in the middle of a block. stop at the last whole one.
+                    if (end > windowStart + window.capacity()) {
+                        windowStart = position;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(size - windowStart, WINDOW_SIZE));
+                    }
+                    blocks.add(new Block(window, (int)(position - windowStart)));
+                    position = end;
+                }
+            } finally {
+                // the mappings stay valid after the file is closed
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (blocks.isEmpty()) {
+            instructionCount = 0;
+        } else {
+            Block last = blocks.get(blocks.size() - 1);
+            instructionCount = last.firstInstruction + last.instructionCount;
+        }
+    }
+
+    public int getBlockCount()
+    {
+        return blocks.size();
+    }
+    public long getFirstInstruction(int blockIndex)
+    {
+        return blocks.get(blockIndex).firstInstruction;
+    }
+    /** the block with the instruction in it, or -1 if it's past the end */
+    public int findBlock(long index)
+    {
+        int low = 0, high = blocks.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Block block = blocks.get(middle);
+            if (index < block.firstInstruction)
+                high = middle - 1;
+            else if (index >= block.firstInstruction + block.instructionCount)
+                low = middle + 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+    /** registers as of before the block's first instruction, with hi and lo at the end */
+    public int[] getStartRegisters(int blockIndex)
+    {
+        Block block = blocks.get(blockIndex);
+        int[] registers = new int[Tracer.REGISTER_COUNT];
+        for (int i = 0; i < registers.length; i++)
+            registers[i] = block.window.getInt(block.offset + 24 + 4 * i);
+        return registers;
+    }
+
+    /** calls back for every instruction in the block. returns false if the visitor stopped early. */
+    public boolean decode(int blockIndex, Visitor visitor)
+    {
+        Block block = blocks.get(blockIndex);
+        int[] registers = getStartRegisters(blockIndex);
+        inflate(block);
+        byte[] raw = this.raw;
+        cursor = 0;
+        int nextPc = block.window.getInt(block.offset + 20);
+        int storeAddress = 0;
+        for (int i = 0; i < block.instructionCount; i++) {
+            long index = block.firstInstruction + i;
+            int tag = raw[cursor++] & 0xFF;
+            int pc = nextPc;
+            if ((tag & Tracer.TAG_JUMP) != 0)
+                pc += readZigzag() << 2;
+            int changedCount = tag >>> Tracer.TAG_REGISTER_COUNT_SHIFT;
+            for (int j = 0; j < changedCount; j++) {
+                int number = raw[cursor++];
+                registers[number] += readZigzag();
+            }
+            if ((tag & Tracer.TAG_STORES) != 0) {
+                int storeCount = readVarint();
+                for (int j = 0; j < storeCount; j++) {
+                    storeAddress += readZigzag();
+                    int length = readVarint();
+                    visitor.store(index, storeAddress, raw, cursor, length);
+                    cursor += length;
+                }
+            }
+            if (!visitor.instruction(index, pc, registers))
+                return false;
+            nextPc = pc + 4;
+        }
+        return true;
+    }
+    private void inflate(Block block)
+    {
+        if (raw.length < block.rawLength)
+            raw = new byte[block.rawLength];
+        ByteBuffer compressed = block.window.duplicate();
+        compressed.limit(block.offset + BLOCK_HEADER_SIZE + block.compressedLength);
+        compressed.position(block.offset + BLOCK_HEADER_SIZE);
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(raw, 0, block.rawLength) != block.rawLength)
+                throw new RuntimeException("corrupt trace block at instruction " + block.firstInstruction);
+        } catch (DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    private int readVarint()
+    {
+        int value = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = raw[cursor++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+    private int readZigzag()
+    {
+        int value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
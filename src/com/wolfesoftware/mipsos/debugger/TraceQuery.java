@@ -0,0 +1,257 @@
+package com.wolfesoftware.mipsos.debugger;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.wolfesoftware.mipsos.assembler.*;
+import com.wolfesoftware.mipsos.common.*;
+import com.wolfesoftware.mipsos.simulator.Tracer;
+
+/**
+ * answers questions about a trace from --trace without running anything again.
+ * usage: TraceQuery program.mips trace-file [query...]
+ * <ul>
+ * <li>write:ADDRESS[@N] - the last write to an address in the first N instructions (default all of them)</li>
+ * <li>reg:$REGISTER@N - a register's value after N instructions</li>
+ * <li>pc:WHERE - every time the pc was at a label, a 0x address, or a line number</li>
+ * </ul>
+ * instructions are counted from 0 at the start of the trace. without --pipeline or programs that write the clock,
+ * that's the same as the clock.
+ */
+public class TraceQuery
+{
+    public static void main(String[] args) throws AssemblingException, IOException
+    {
+        LinkedList<String> argList = Util.arrayToLinkedList(args);
+        TraceQueryOptions options = new TraceQueryOptions();
+        options.parse(argList);
+        options.normalize();
+        if (argList.size() < 2)
+            throw new RuntimeException("usage: TraceQuery program.mips trace-file [query...]");
+        String inputPath = argList.removeFirst();
+        String tracePath = argList.removeFirst();
+
+        ExecutableBinary binary = Assembler.assembleToBinary(inputPath, options.simulatorOptions.assemblerOptions);
+        TraceQuery traceQuery = new TraceQuery(new TraceFile(tracePath), DebugInfo.fromBinary(binary), options.limit);
+        if (argList.isEmpty())
+            traceQuery.summary();
+        for (String query : argList)
+            traceQuery.query(query);
+    }
+
+    private final TraceFile trace;
+    private final DebugInfo debugInfo;
+    private final String[] sourceLines;
+    private final int limit;
+
+    public TraceQuery(TraceFile trace, DebugInfo debugInfo, int limit)
+    {
+        this.trace = trace;
+        this.debugInfo = debugInfo;
+        this.sourceLines = Util.readLines(debugInfo.inputPath);
+        this.limit = limit;
+    }
+
+    public void summary()
+    {
+        System.out.println(trace.instructionCount + " instructions in " + trace.getBlockCount() + " blocks");
+    }
+
+    public void query(String query)
+    {
+        System.out.println(query);
+        try {
+            if (query.startsWith("write:")) {
+                String value = query.substring("write:".length());
+                long before = trace.instructionCount;
+                int at = value.lastIndexOf('@');
+                if (at != -1) {
+                    before = parseLong(value.substring(at + 1));
+                    value = value.substring(0, at);
+                }
+                lastWrite(parseAddress(value), before);
+            } else if (query.startsWith("reg:")) {
+                String value = query.substring("reg:".length());
+                int at = value.lastIndexOf('@');
+                if (at == -1)
+                    throw new IllegalArgumentException("reg needs @N");
+                registerAt(parseRegister(value.substring(0, at)), parseLong(value.substring(at + 1)));
+            } else if (query.startsWith("pc:")) {
+                pcInstances(parsePc(query.substring("pc:".length())));
+            } else {
+                throw new IllegalArgumentException("unknown query. try write:, reg:, or pc:");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("  * ERROR: " + e.getMessage());
+        }
+    }
+
+    /** looks backwards one block at a time, so a recent write is quick to find */
+    private void lastWrite(final int address, final long before)
+    {
+        int blockIndex = trace.findBlock(Math.min(before, trace.instructionCount) - 1);
+        for (; blockIndex >= 0; blockIndex--) {
+            final long[] found = { -1, 0, 0 };
+            final byte[][] foundBytes = new byte[1][];
+            trace.decode(blockIndex, new TraceFile.Visitor() {
+                @Override
+                public void store(long index, int storeAddress, byte[] bytes, int offset, int length)
+                {
+                    if (index >= before || Integer.toUnsignedLong(address - storeAddress) >= length)
+                        return;
+                    found[0] = index;
+                    found[1] = storeAddress;
+                    foundBytes[0] = Arrays.copyOfRange(bytes, offset, offset + length);
+                }
+                @Override
+                public boolean instruction(long index, int pc, int[] registers)
+                {
+                    if (index == found[0])
+                        found[2] = pc;
+                    return index < before - 1;
+                }
+            });
+            if (found[0] != -1) {
+                StringBuilder hex = new StringBuilder();
+                for (byte b : foundBytes[0])
+                    hex.append(String.format("%02x", b & 0xFF));
+                System.out.println("  instruction " + found[0] + ": " + where((int)found[2]));
+                System.out.println("    wrote " + foundBytes[0].length + " bytes at " + Util.addressToString((int)found[1]) + ": " + hex);
+                return;
+            }
+        }
+        System.out.println("  never written in the trace");
+    }
+
+    private void registerAt(final int register, final long after)
+    {
+        if (after < 0 || after > trace.instructionCount)
+            throw new IllegalArgumentException("the trace has " + trace.instructionCount + " instructions");
+        if (trace.getBlockCount() == 0)
+            throw new IllegalArgumentException("the trace is empty");
+        int value;
+        int nextBlock = after == trace.instructionCount ? -1 : trace.findBlock(after);
+        if (nextBlock != -1 && trace.getFirstInstruction(nextBlock) == after) {
+            // a checkpoint has it
+            value = trace.getStartRegisters(nextBlock)[register];
+        } else {
+            final int[] result = new int[1];
+            trace.decode(trace.findBlock(after - 1), new TraceFile.Visitor() {
+                @Override
+                public void store(long index, int address, byte[] bytes, int offset, int length)
+                {
+                }
+                @Override
+                public boolean instruction(long index, int pc, int[] registers)
+                {
+                    result[0] = registers[register];
+                    return index < after - 1;
+                }
+            });
+            value = result[0];
+        }
+        System.out.println("  " + registerName(register) + " = " + Util.addressToString(value) + " (" + value + ")");
+    }
+
+    private void pcInstances(final int address)
+    {
+        System.out.println("  " + where(address));
+        final long[] count = { 0 };
+        for (int i = 0; i < trace.getBlockCount(); i++) {
+            trace.decode(i, new TraceFile.Visitor() {
+                @Override
+                public void store(long index, int storeAddress, byte[] bytes, int offset, int length)
+                {
+                }
+                @Override
+                public boolean instruction(long index, int pc, int[] registers)
+                {
+                    if (pc != address)
+                        return true;
+                    if (limit == 0 || count[0] < limit)
+                        System.out.println("  instruction " + index);
+                    count[0]++;
+                    return true;
+                }
+            });
+        }
+        if (limit != 0 && count[0] > limit)
+            System.out.println("  ... " + (count[0] - limit) + " more");
+        System.out.println("  " + count[0] + " time" + (count[0] != 1 ? "s" : ""));
+    }
+
+    /** line number, address, and source, like the profiler prints */
+    private String where(int address)
+    {
+        String where = "[" + Util.addressToString(address) + "]";
+        try {
+            int lineNumber = debugInfo.addressToLine(address);
+            where = lineNumber + " " + where + "  " + sourceLines[lineNumber].trim();
+        } catch (IllegalArgumentException e) {
+            // not from the source
+        }
+        return where;
+    }
+
+    /** a label or a number. numbers starting with 0x can use all 32 bits. */
+    private int parseAddress(String string)
+    {
+        Long label = debugInfo.labels.get(string);
+        if (label != null)
+            return (int)(long)label;
+        try {
+            return (int)parseLong(string);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unrecognized address or label: " + string);
+        }
+    }
+    /** like the debugger's breakpoints, plain numbers are line numbers */
+    private int parsePc(String string)
+    {
+        if (string.startsWith("0x") || debugInfo.labels.containsKey(string))
+            return parseAddress(string);
+        int lineNumber = (int)parseLong(string);
+        try {
+            return debugInfo.lineToAddress(lineNumber);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("no address for line number " + lineNumber);
+        }
+    }
+    private static int parseRegister(String string)
+    {
+        if (string.equals("$hi"))
+            return Tracer.HI;
+        if (string.equals("$lo"))
+            return Tracer.LO;
+        int register = Util.linearSearch(Registers.NAMES, string);
+        if (register != -1)
+            return register;
+        if (string.startsWith("$")) {
+            try {
+                register = Integer.parseInt(string.substring(1));
+                if (0 <= register && register < 32)
+                    return register;
+            } catch (NumberFormatException e) {
+            }
+        }
+        throw new IllegalArgumentException("unrecognized register name: " + string);
+    }
+    private static String registerName(int register)
+    {
+        if (register == Tracer.HI)
+            return "$hi";
+        if (register == Tracer.LO)
+            return "$lo";
+        return Registers.NAMES[register];
+    }
+    private static long parseLong(String string)
+    {
+        try {
+            if (string.startsWith("0x"))
+                return Long.parseLong(string.substring("0x".length()), 16);
+            return Long.parseLong(string);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + string);
+        }
+    }
+}
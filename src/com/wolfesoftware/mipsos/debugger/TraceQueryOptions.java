@@ -0,0 +1,37 @@
+package com.wolfesoftware.mipsos.debugger;
+
+import java.util.*;
+
+import com.wolfesoftware.mipsos.common.Options;
+import com.wolfesoftware.mipsos.simulator.SimulatorOptions;
+
+public class TraceQueryOptions extends Options
+{
+    /** the program gets assembled the same way it was for the trace */
+    public SimulatorOptions simulatorOptions;
+
+    /** how many matches to print for queries that can have lots of them. 0 means all of them. */
+    public int limit = 20;
+
+    public void parse(LinkedList<String> args)
+    {
+        simulatorOptions = new SimulatorOptions();
+        simulatorOptions.parse(args, true);
+
+        Iterator<String> iterator = args.iterator();
+        while (iterator.hasNext()) {
+            String arg = iterator.next();
+            if (arg.startsWith("--limit=")) {
+                limit = Integer.parseInt(arg.substring("--limit=".length()));
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void normalize()
+    {
+        if (limit < 0)
+            throw new RuntimeException("limit can't be negative");
+    }
+}
@@ -0,0 +1,20 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * a straight run of decoded instructions. only the last instruction can change the pc, talk to cop0, or make a syscall.
+ * blocks never cross a {@link DecodeCache} page, so they get thrown out along with the page they came from.
+ */
+public class BasicBlock
+{
+    public final int address;
+    public final DecodedInstr[] instrs;
+    /** counts up to {@link BlockCompiler#HOT_THRESHOLD} */
+    public int entryCount = 0;
+    public CompiledBlock compiled = null;
+
+    public BasicBlock(int address, DecodedInstr[] instrs)
+    {
+        this.address = address;
+        this.instrs = instrs;
+    }
+}
@@ -0,0 +1,55 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.util.*;
+
+import com.wolfesoftware.mipsos.common.Options;
+
+public class BatchOptions extends Options
+{
+    public SimulatorOptions simulatorOptions;
+
+    /** 0 means one per processor */
+    public int threads = 0;
+    /** a program that runs longer than this fails, so one stuck program can't hold up the batch. 0 means no limit. */
+    public long maxInstructions = 1000000000;
+    /** .mips files, directories of them, or manifests listing them */
+    public ArrayList<String> inputs = new ArrayList<String>();
+
+    public void parse(LinkedList<String> args)
+    {
+        simulatorOptions = new SimulatorOptions();
+        simulatorOptions.parse(args, false);
+        // each program gets its own stdin and memory
+        if (simulatorOptions.stdinFile != null)
+            throw new RuntimeException("--stdin-file doesn't make sense for a batch");
+        if (simulatorOptions.memoryFile != null)
+            throw new RuntimeException("--memory-file doesn't make sense for a batch");
+        if (simulatorOptions.traceFile != null)
+            throw new RuntimeException("--trace doesn't make sense for a batch");
+
+        Iterator<String> iterator = args.iterator();
+        while (iterator.hasNext()) {
+            String arg = iterator.next();
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+                iterator.remove();
+            } else if (arg.startsWith("--max-instructions=")) {
+                maxInstructions = Long.parseLong(arg.substring("--max-instructions=".length()));
+                iterator.remove();
+            } else if (!arg.startsWith("--")) {
+                inputs.add(arg);
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void normalize()
+    {
+        simulatorOptions.normalize();
+        if (threads == 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        if (maxInstructions < 0)
+            throw new RuntimeException("max instructions can't be negative");
+    }
+}
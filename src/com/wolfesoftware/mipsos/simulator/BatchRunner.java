@@ -0,0 +1,230 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.wolfesoftware.mipsos.assembler.Assembler;
+import com.wolfesoftware.mipsos.common.*;
+
+/**
+ * runs lots of programs at once without a terminal.
+ * for each program X.mips, stdin comes from X.mips.stdin if it exists,
+ * and stdout is compared against X.mips.stdout_expected if that exists.
+ */
+public class BatchRunner
+{
+    public static void main(String[] args) throws IOException
+    {
+        LinkedList<String> argList = Util.arrayToLinkedList(args);
+        BatchOptions batchOptions = new BatchOptions();
+        batchOptions.parse(argList);
+        batchOptions.normalize();
+        if (!argList.isEmpty())
+            throw new RuntimeException("unrecognized arguments: " + argList);
+        if (batchOptions.inputs.isEmpty())
+            throw new RuntimeException("nothing to run");
+
+        ArrayList<File> programs = new ArrayList<File>();
+        for (String input : batchOptions.inputs)
+            findPrograms(new File(input), programs);
+
+        boolean allPassed = new BatchRunner(batchOptions).runAll(programs);
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    private static void findPrograms(File input, ArrayList<File> programs) throws IOException
+    {
+        if (input.isDirectory()) {
+            File[] files = input.listFiles();
+            Arrays.sort(files);
+            for (File file : files)
+                if (file.isFile() && file.getName().endsWith(".mips"))
+                    programs.add(file);
+        } else if (input.getName().endsWith(".mips")) {
+            programs.add(input);
+        } else {
+            // a manifest. one path per line, relative to the manifest
+            BufferedReader reader = new BufferedReader(new FileReader(input));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#"))
+                        continue;
+                    File file = new File(line);
+                    if (!file.isAbsolute())
+                        file = new File(input.getParentFile(), line);
+                    findPrograms(file, programs);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    private final BatchOptions options;
+
+    public BatchRunner(BatchOptions options)
+    {
+        this.options = options;
+    }
+
+    /** prints a line for each program in order as they finish. returns whether everything passed. */
+    public boolean runAll(List<File> programs)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(options.threads);
+        try {
+            ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final File program : programs) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    public Result call()
+                    {
+                        return runProgram(program);
+                    }
+                }));
+            }
+
+            int passed = 0, failed = 0, unchecked = 0;
+            long totalInstructions = 0;
+            for (Future<Result> future : futures) {
+                Result result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+                System.out.println(result);
+                if (result.status == Result.PASS)
+                    passed++;
+                else if (result.status == Result.UNCHECKED)
+                    unchecked++;
+                else
+                    failed++;
+                totalInstructions += result.instructions;
+            }
+            System.out.println(passed + " passed, " + failed + " failed, " + unchecked + " unchecked, " + totalInstructions + " instructions");
+            return failed == 0;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** assembles and runs one program with its own simulator and memory */
+    public Result runProgram(File program)
+    {
+        Result result = new Result(program);
+        long startTime = System.nanoTime();
+        try {
+            File stdinFile = new File(program.getPath() + ".stdin");
+            InputSource in = stdinFile.isFile() ? InputSource.fromFile(stdinFile.getPath()) : InputSource.fromBytes(new byte[0]);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StdioListener listener = new StdioListener(in, Channels.newChannel(out), false, false);
+
+            ExecutableBinary binary = Assembler.assembleToBinary(program.getPath(), options.simulatorOptions.assemblerOptions);
+            Simulator simulator = new Simulator(options.simulatorOptions, listener);
+            simulator.loadBinary(binary);
+            boolean outOfBudget = false;
+            try {
+                if (options.maxInstructions == 0) {
+                    simulator.run();
+                } else {
+                    while (simulator.getStatus() != SimulatorStatus.Done) {
+                        long remaining = options.maxInstructions - simulator.getInstructionCount();
+                        if (remaining <= 0) {
+                            outOfBudget = true;
+                            break;
+                        }
+                        // break instructions just keep going, like they do in run()
+                        simulator.run(remaining);
+                    }
+                }
+            } finally {
+                listener.flush();
+                result.instructions = simulator.getInstructionCount();
+            }
+            result.output = out.toByteArray();
+
+            File expectedFile = new File(program.getPath() + ".stdout_expected");
+            if (outOfBudget) {
+                result.status = Result.FAIL;
+                result.message = "still running after " + options.maxInstructions + " instructions";
+            } else if (expectedFile.isFile()) {
+                result.compare(readBytes(expectedFile));
+            } else {
+                result.status = Result.UNCHECKED;
+            }
+        } catch (Throwable e) {
+            // even running out of memory only takes down this program, not the whole batch
+            result.status = Result.ERROR;
+            result.message = e.toString();
+        }
+        result.wallTime = System.nanoTime() - startTime;
+        return result;
+    }
+
+    private static byte[] readBytes(File file) throws IOException
+    {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int)input.length()];
+            input.readFully(bytes);
+            return bytes;
+        } finally {
+            input.close();
+        }
+    }
+
+    public static class Result
+    {
+        public static final String PASS = "PASS";
+        public static final String FAIL = "FAIL";
+        public static final String ERROR = "ERROR";
+        public static final String UNCHECKED = "----";
+
+        public final File program;
+        public String status;
+        public String message = null;
+        public byte[] output = null;
+        public long instructions = 0;
+        public long wallTime = 0;
+
+        public Result(File program)
+        {
+            this.program = program;
+        }
+
+        private void compare(byte[] expected)
+        {
+            int line = 1;
+            int length = Math.min(expected.length, output.length);
+            for (int i = 0; i < length; i++) {
+                if (expected[i] != output[i]) {
+                    status = FAIL;
+                    message = "differs at line " + line;
+                    return;
+                }
+                if (expected[i] == '\n')
+                    line++;
+            }
+            if (expected.length != output.length) {
+                status = FAIL;
+                message = (output.length < expected.length ? "output ends early at line " : "extra output at line ") + line;
+                return;
+            }
+            status = PASS;
+        }
+
+        @Override
+        public String toString()
+        {
+            String string = String.format("%-5s %s  %d ms  %d instructions", status, program.getPath(), wallTime / 1000000, instructions);
+            if (message != null)
+                string += "  (" + message + ")";
+            return string;
+        }
+    }
+}
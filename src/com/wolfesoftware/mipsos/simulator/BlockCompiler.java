@@ -0,0 +1,368 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import com.wolfesoftware.mipsos.simulator.ClassFileWriter.Code;
+
+/**
+ * turns hot {@link BasicBlock}s into JVM classes so that HotSpot can compile guest code to native code.
+ * MIPS registers live in JVM locals for the duration of the block.
+ * only the straight-line part of a block is compiled, and only up to the first instruction we don't handle here
+ * (hi/lo). everything after that, including the block's last instruction, is left to the interpreter.
+ */
+public class BlockCompiler
+{
+    /** how many times a block gets entered before we compile it */
+    public static final int HOT_THRESHOLD = 100;
+
+    private static final String COMPILED_BLOCK = "com/wolfesoftware/mipsos/simulator/CompiledBlock";
+    private static final String MEMORY = "com/wolfesoftware/mipsos/simulator/Memory";
+    private static final String DECODE_CACHE = "com/wolfesoftware/mipsos/simulator/DecodeCache";
+    private static final String EXECUTE_DESCRIPTOR = "([IL" + MEMORY + ";L" + DECODE_CACHE + ";)I";
+
+    // locals
+    private static final int LOCAL_REGISTERS = 1;
+    private static final int LOCAL_MEMORY = 2;
+    private static final int LOCAL_DECODE_CACHE = 3;
+    private static final int LOCAL_INVALIDATION_COUNT = 4;
+    private static final int LOCAL_NEXT_INDEX = 5;
+    private static final int LOCAL_FIRST_REGISTER = 6;
+    private static final int MAX_LOCALS = LOCAL_FIRST_REGISTER + 32;
+    private static final int MAX_STACK = 8;
+
+    private int classCount = 0;
+
+    /** returns null if there's nothing worth compiling at the start of the block */
+    public CompiledBlock compile(BasicBlock block)
+    {
+        DecodedInstr[] instrs = block.instrs;
+        int length = 0;
+        while (length < instrs.length - 1 && isSupported(instrs[length].instr))
+            length++;
+        if (length == 0)
+            return null;
+
+        String className = "com/wolfesoftware/mipsos/simulator/jit/Block_" + Integer.toHexString(block.address) + "_" + classCount++;
+        ClassFileWriter classFile = new ClassFileWriter(className, COMPILED_BLOCK);
+
+        // constructor
+        Code constructor = new Code(1, 1);
+        constructor.op1(Code.ALOAD, 0);
+        constructor.op2(Code.INVOKESPECIAL, classFile.methodRef(COMPILED_BLOCK, "<init>", "()V"));
+        constructor.op(Code.RETURN);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", constructor);
+
+        // every register we touch gets loaded into a local up front and written back at the exit
+        boolean[] used = new boolean[32];
+        boolean[] written = new boolean[32];
+        for (int i = 0; i < length; i++)
+            markRegisters(instrs[i], used, written);
+
+        Code code = new Code(MAX_STACK, MAX_LOCALS);
+        for (int r = 1; r < 32; r++) {
+            if (!used[r])
+                continue;
+            code.op1(Code.ALOAD, LOCAL_REGISTERS);
+            code.pushInt(classFile, r);
+            code.op(Code.IALOAD);
+            code.op1(Code.ISTORE, LOCAL_FIRST_REGISTER + r);
+        }
+        int getInvalidationCount = classFile.methodRef(DECODE_CACHE, "getInvalidationCount", "()I");
+        code.op1(Code.ALOAD, LOCAL_DECODE_CACHE);
+        code.op2(Code.INVOKEVIRTUAL, getInvalidationCount);
+        code.op1(Code.ISTORE, LOCAL_INVALIDATION_COUNT);
+
+        // there's only one copy of the exit. a copy per store would make blocks with lots of stores too big for
+        // HotSpot to bother compiling.
+        int exit = code.newLabel();
+        for (int i = 0; i < length; i++) {
+            DecodedInstr decodedInstr = instrs[i];
+            emitInstruction(classFile, code, decodedInstr);
+            if (isStore(decodedInstr.instr)) {
+                // bail out if we just wrote over code
+                code.pushInt(classFile, i + 1);
+                code.op1(Code.ISTORE, LOCAL_NEXT_INDEX);
+                code.op1(Code.ALOAD, LOCAL_DECODE_CACHE);
+                code.op2(Code.INVOKEVIRTUAL, getInvalidationCount);
+                code.op1(Code.ILOAD, LOCAL_INVALIDATION_COUNT);
+                code.jump(Code.IF_ICMPNE, exit);
+            }
+        }
+        code.pushInt(classFile, length);
+        code.op1(Code.ISTORE, LOCAL_NEXT_INDEX);
+        code.placeLabel(exit);
+        emitExit(classFile, code, written);
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "execute", EXECUTE_DESCRIPTOR, code);
+
+        // a class can only be unloaded along with its loader, so every class gets its own.
+        // that way a class goes away as soon as its block gets flushed or written over.
+        Class<?> compiledClass = new BlockClassLoader().define(className.replace('/', '.'), classFile.toByteArray());
+        try {
+            return (CompiledBlock)compiledClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isSupported(MipsInstr instr)
+    {
+        if (instr == null)
+            return false;
+        switch (instr) {
+            case ADD:
+            case ADDI:
+            case AND:
+            case ANDI:
+            case LB:
+            case LH:
+            case LUI:
+            case LW:
+            case NOP:
+            case NOR:
+            case OR:
+            case ORI:
+            case SB:
+            case SH:
+            case SLL:
+            case SLLV:
+            case SLT:
+            case SLTI:
+            case SRA:
+            case SRAV:
+            case SRL:
+            case SRLV:
+            case SUB:
+            case SW:
+            case XOR:
+            case XORI:
+                return true;
+            default:
+                return false;
+        }
+    }
+    private static boolean isStore(MipsInstr instr)
+    {
+        return instr == MipsInstr.SB || instr == MipsInstr.SH || instr == MipsInstr.SW;
+    }
+
+    private static void markRegisters(DecodedInstr decodedInstr, boolean[] used, boolean[] written)
+    {
+        switch (decodedInstr.instr) {
+            case NOP:
+                return;
+            case LUI:
+                used[decodedInstr.rt] = written[decodedInstr.rt] = true;
+                return;
+            case ADDI:
+            case ANDI:
+            case LB:
+            case LH:
+            case LW:
+            case ORI:
+            case SLTI:
+            case XORI:
+                used[decodedInstr.rs] = true;
+                used[decodedInstr.rt] = written[decodedInstr.rt] = true;
+                return;
+            case SB:
+            case SH:
+            case SW:
+                used[decodedInstr.rs] = used[decodedInstr.rt] = true;
+                return;
+            case SLL:
+            case SRA:
+            case SRL:
+                used[decodedInstr.rt] = true;
+                used[decodedInstr.rd] = written[decodedInstr.rd] = true;
+                return;
+            default:
+                used[decodedInstr.rs] = used[decodedInstr.rt] = true;
+                used[decodedInstr.rd] = written[decodedInstr.rd] = true;
+                return;
+        }
+    }
+
+    private static void emitInstruction(ClassFileWriter classFile, Code code, DecodedInstr decodedInstr)
+    {
+        int rs = decodedInstr.rs;
+        int rt = decodedInstr.rt;
+        int rd = decodedInstr.rd;
+        switch (decodedInstr.instr) {
+            case ADD:
+                emitBinary(code, rs, rt, Code.IADD, rd);
+                break;
+            case ADDI:
+                emitBinaryImmediate(classFile, code, rs, decodedInstr.signExtImm, Code.IADD, rt);
+                break;
+            case AND:
+                emitBinary(code, rs, rt, Code.IAND, rd);
+                break;
+            case ANDI:
+                emitBinaryImmediate(classFile, code, rs, decodedInstr.zeroExtImm, Code.IAND, rt);
+                break;
+            case LB:
+                emitLoad(classFile, code, decodedInstr, "loadByte", "(I)B");
+                break;
+            case LH:
+                emitLoad(classFile, code, decodedInstr, "loadHalf", "(I)S");
+                break;
+            case LUI:
+                code.pushInt(classFile, decodedInstr.zeroExtImm << 16);
+                emitStoreRegister(code, rt);
+                break;
+            case LW:
+                emitLoad(classFile, code, decodedInstr, "loadWord", "(I)I");
+                break;
+            case NOP:
+                break;
+            case NOR:
+                emitBinary(code, rs, rt, Code.IOR, -1);
+                code.op(Code.ICONST_M1);
+                code.op(Code.IXOR);
+                emitStoreRegister(code, rd);
+                break;
+            case OR:
+                emitBinary(code, rs, rt, Code.IOR, rd);
+                break;
+            case ORI:
+                emitBinaryImmediate(classFile, code, rs, decodedInstr.zeroExtImm, Code.IOR, rt);
+                break;
+            case SB:
+                emitStore(classFile, code, decodedInstr, Code.I2B, "storeByte", "(IB)V");
+                break;
+            case SH:
+                emitStore(classFile, code, decodedInstr, Code.I2S, "storeHalf", "(IS)V");
+                break;
+            case SLL:
+                emitBinaryImmediate(classFile, code, rt, decodedInstr.shamt, Code.ISHL, rd);
+                break;
+            case SLLV:
+                emitBinary(code, rt, rs, Code.ISHL, rd);
+                break;
+            case SLT:
+                emitLoadRegister(code, rs);
+                emitLoadRegister(code, rt);
+                emitLessThan(code, rd);
+                break;
+            case SLTI:
+                emitLoadRegister(code, rs);
+                code.pushInt(classFile, decodedInstr.signExtImm);
+                emitLessThan(code, rt);
+                break;
+            case SRA:
+                emitBinaryImmediate(classFile, code, rt, decodedInstr.shamt, Code.ISHR, rd);
+                break;
+            case SRAV:
+                emitBinary(code, rt, rs, Code.ISHR, rd);
+                break;
+            case SRL:
+                emitBinaryImmediate(classFile, code, rt, decodedInstr.shamt, Code.IUSHR, rd);
+                break;
+            case SRLV:
+                emitBinary(code, rt, rs, Code.IUSHR, rd);
+                break;
+            case SUB:
+                emitBinary(code, rs, rt, Code.ISUB, rd);
+                break;
+            case SW:
+                emitStore(classFile, code, decodedInstr, -1, "storeWord", "(II)V");
+                break;
+            case XOR:
+                emitBinary(code, rs, rt, Code.IXOR, rd);
+                break;
+            case XORI:
+                emitBinaryImmediate(classFile, code, rs, decodedInstr.zeroExtImm, Code.IXOR, rt);
+                break;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /** pass -1 for the destination to leave the result on the stack */
+    private static void emitBinary(Code code, int left, int right, int opcode, int destination)
+    {
+        emitLoadRegister(code, left);
+        emitLoadRegister(code, right);
+        code.op(opcode);
+        if (destination != -1)
+            emitStoreRegister(code, destination);
+    }
+    private static void emitBinaryImmediate(ClassFileWriter classFile, Code code, int left, int immediate, int opcode, int destination)
+    {
+        emitLoadRegister(code, left);
+        code.pushInt(classFile, immediate);
+        code.op(opcode);
+        emitStoreRegister(code, destination);
+    }
+    private static void emitLessThan(Code code, int destination)
+    {
+        // if (!(left < right)) goto zero; push 1; goto done; zero: push 0; done:
+        code.op2(Code.IF_ICMPGE, 3 + 1 + 3);
+        code.op(Code.ICONST_1);
+        code.op2(Code.GOTO, 3 + 1);
+        code.op(Code.ICONST_0);
+        emitStoreRegister(code, destination);
+    }
+    private static void emitAddress(ClassFileWriter classFile, Code code, DecodedInstr decodedInstr)
+    {
+        code.op1(Code.ALOAD, LOCAL_MEMORY);
+        emitLoadRegister(code, decodedInstr.rs);
+        code.pushInt(classFile, decodedInstr.signExtImm);
+        code.op(Code.IADD);
+    }
+    private static void emitLoad(ClassFileWriter classFile, Code code, DecodedInstr decodedInstr, String methodName, String descriptor)
+    {
+        emitAddress(classFile, code, decodedInstr);
+        code.op2(Code.INVOKEVIRTUAL, classFile.methodRef(MEMORY, methodName, descriptor));
+        emitStoreRegister(code, decodedInstr.rt);
+    }
+    /** pass -1 for the narrowing opcode if there isn't one */
+    private static void emitStore(ClassFileWriter classFile, Code code, DecodedInstr decodedInstr, int narrowingOpcode, String methodName, String descriptor)
+    {
+        emitAddress(classFile, code, decodedInstr);
+        emitLoadRegister(code, decodedInstr.rt);
+        if (narrowingOpcode != -1)
+            code.op(narrowingOpcode);
+        code.op2(Code.INVOKEVIRTUAL, classFile.methodRef(MEMORY, methodName, descriptor));
+    }
+
+    private static void emitLoadRegister(Code code, int r)
+    {
+        if (r == 0)
+            code.op(Code.ICONST_0);
+        else
+            code.op1(Code.ILOAD, LOCAL_FIRST_REGISTER + r);
+    }
+    private static void emitStoreRegister(Code code, int r)
+    {
+        if (r == 0)
+            code.op(Code.POP);
+        else
+            code.op1(Code.ISTORE, LOCAL_FIRST_REGISTER + r);
+    }
+
+    /** writes back the registers and returns the index of the next instruction to run, which is in a local */
+    private static void emitExit(ClassFileWriter classFile, Code code, boolean[] written)
+    {
+        for (int r = 1; r < 32; r++) {
+            if (!written[r])
+                continue;
+            code.op1(Code.ALOAD, LOCAL_REGISTERS);
+            code.pushInt(classFile, r);
+            code.op1(Code.ILOAD, LOCAL_FIRST_REGISTER + r);
+            code.op(Code.IASTORE);
+        }
+        code.op1(Code.ILOAD, LOCAL_NEXT_INDEX);
+        code.op(Code.IRETURN);
+    }
+
+    private static class BlockClassLoader extends ClassLoader
+    {
+        public BlockClassLoader()
+        {
+            super(BlockCompiler.class.getClassLoader());
+        }
+        public Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.util.*;
+
+/**
+ * one bit per word address, in 64KB pages that only exist if they have a breakpoint in them.
+ * checking an address is a couple of array loads, so it can happen on every instruction.
+ * changes can come from any thread. the simulator thread sees them eventually, and {@link #changed} tells it when.
+ */
+public class BreakpointMap
+{
+    private static final int PAGE_SIZE_EXPONENT = 16;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SIZE_EXPONENT - 2);
+
+    private int[][] pages = null;
+    private final TreeSet<Integer> addresses = new TreeSet<Integer>();
+    /** set whenever breakpoints change so that whoever has translated blocks can throw them out */
+    volatile boolean changed = false;
+
+    public boolean contains(int address)
+    {
+        int[][] pages = this.pages;
+        if (pages == null)
+            return false;
+        int[] page = pages[address >>> PAGE_SIZE_EXPONENT];
+        return page != null && (page[(address >>> 7) & (WORDS_PER_PAGE / 32 - 1)] & (1 << (address >>> 2))) != 0;
+    }
+
+    public synchronized void add(int address)
+    {
+        if (pages == null)
+            pages = new int[1 << (32 - PAGE_SIZE_EXPONENT)][];
+        int[] page = pages[address >>> PAGE_SIZE_EXPONENT];
+        if (page == null) {
+            page = new int[WORDS_PER_PAGE / 32];
+            pages[address >>> PAGE_SIZE_EXPONENT] = page;
+        }
+        page[(address >>> 7) & (WORDS_PER_PAGE / 32 - 1)] |= 1 << (address >>> 2);
+        addresses.add(address);
+        changed = true;
+    }
+    /** returns whether there was one */
+    public synchronized boolean remove(int address)
+    {
+        if (!addresses.remove(address))
+            return false;
+        // leave the empty page there. it's only a couple KB.
+        pages[address >>> PAGE_SIZE_EXPONENT][(address >>> 7) & (WORDS_PER_PAGE / 32 - 1)] &= ~(1 << (address >>> 2));
+        changed = true;
+        return true;
+    }
+    public synchronized void clear()
+    {
+        pages = null;
+        addresses.clear();
+        changed = true;
+    }
+    /** sorted by address */
+    public synchronized List<Integer> toList()
+    {
+        return new ArrayList<Integer>(addresses);
+    }
+}
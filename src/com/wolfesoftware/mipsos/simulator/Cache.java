@@ -0,0 +1,132 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * one level of a set-associative cache with LRU replacement. this only keeps tags, not data.
+ * write-back caches allocate on a write miss. write-through caches don't.
+ */
+public class Cache
+{
+    public final String name;
+    public final int size;
+    public final int associativity;
+    public final int lineSize;
+    public final boolean writeBack;
+    /** cycles for a hit */
+    public final int latency;
+    /** null means main memory is next */
+    private final Cache next;
+    private final int memoryLatency;
+
+    private final int lineShift;
+    private final int setMask;
+    // indexed by set * associativity + way
+    private final int[] tags;
+    private final boolean[] valid;
+    private final boolean[] dirty;
+    private final long[] lastUsed;
+    private long useCount = 0;
+
+    public long readHits = 0;
+    public long readMisses = 0;
+    public long writeHits = 0;
+    public long writeMisses = 0;
+    public long writebacks = 0;
+
+    /** memoryLatency only matters if next is null */
+    public Cache(String name, int size, int associativity, int lineSize, boolean writeBack, int latency, Cache next, int memoryLatency)
+    {
+        if (Integer.bitCount(lineSize) != 1 || lineSize < 8)
+            throw new RuntimeException(name + ": line size must be a power of 2 at least 8");
+        int sets = size / lineSize / associativity;
+        if (sets == 0 || Integer.bitCount(sets) != 1 || sets * associativity * lineSize != size)
+            throw new RuntimeException(name + ": size must be a power of 2 multiple of associativity * line size");
+        this.name = name;
+        this.size = size;
+        this.associativity = associativity;
+        this.lineSize = lineSize;
+        this.writeBack = writeBack;
+        this.latency = latency;
+        this.next = next;
+        this.memoryLatency = memoryLatency;
+        lineShift = Integer.numberOfTrailingZeros(lineSize);
+        setMask = sets - 1;
+        tags = new int[sets * associativity];
+        valid = new boolean[sets * associativity];
+        dirty = new boolean[sets * associativity];
+        lastUsed = new long[sets * associativity];
+    }
+
+    /** returns how many cycles the access took, including everything below this level */
+    public int access(int address, boolean write)
+    {
+        int line = address >>> lineShift;
+        int base = (line & setMask) * associativity;
+        int cycles = latency;
+        int victim = base;
+        for (int i = base; i < base + associativity; i++) {
+            if (valid[i] && tags[i] == line) {
+                // hit
+                lastUsed[i] = ++useCount;
+                if (write) {
+                    writeHits++;
+                    if (writeBack)
+                        dirty[i] = true;
+                    else
+                        cycles += nextAccess(address, true);
+                } else {
+                    readHits++;
+                }
+                return cycles;
+            }
+            if (!valid[victim])
+                continue;
+            if (!valid[i] || lastUsed[i] < lastUsed[victim])
+                victim = i;
+        }
+
+        // miss
+        if (write) {
+            writeMisses++;
+            if (!writeBack)
+                return cycles + nextAccess(address, true);
+        } else {
+            readMisses++;
+        }
+        if (valid[victim] && dirty[victim]) {
+            writebacks++;
+            cycles += nextAccess(tags[victim] << lineShift, true);
+        }
+        cycles += nextAccess(address, false);
+        tags[victim] = line;
+        valid[victim] = true;
+        dirty[victim] = write;
+        lastUsed[victim] = ++useCount;
+        return cycles;
+    }
+    private int nextAccess(int address, boolean write)
+    {
+        if (next == null)
+            return memoryLatency;
+        return next.access(address, write);
+    }
+
+    public long getAccesses()
+    {
+        return readHits + readMisses + writeHits + writeMisses;
+    }
+    public long getMisses()
+    {
+        return readMisses + writeMisses;
+    }
+
+    @Override
+    public String toString()
+    {
+        long accesses = getAccesses();
+        String hitRate = accesses == 0 ? "-" : String.format("%.2f%%", 100.0 * (accesses - getMisses()) / accesses);
+        return name + " (" + size / 1024 + "KB, " + associativity + "-way, " + lineSize + "B lines, " + (writeBack ? "write-back" : "write-through") + "): " + //
+                accesses + " accesses, " + hitRate + " hits, " + //
+                "reads " + readHits + "/" + (readHits + readMisses) + ", writes " + writeHits + "/" + (writeHits + writeMisses) + ", " + //
+                writebacks + " writebacks";
+    }
+}
@@ -0,0 +1,79 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * separate instruction and data L1 caches, optionally backed by a unified L2, in front of main memory.
+ * keeps a running estimate of the cycles spent waiting on memory.
+ */
+public class CacheHierarchy
+{
+    public final Cache l1i;
+    public final Cache l1d;
+    /** null if there isn't one */
+    public final Cache l2;
+    /** cycles spent beyond L1 hits */
+    public long stallCycles = 0;
+
+    public CacheHierarchy(SimulatorOptions options)
+    {
+        String[] latencies = options.cacheLatencies.split(",");
+        if (latencies.length != 3)
+            throw new RuntimeException("cache latencies must be L1,L2,MEMORY: " + options.cacheLatencies);
+        int l1Latency = Integer.parseInt(latencies[0]);
+        int l2Latency = Integer.parseInt(latencies[1]);
+        int memoryLatency = Integer.parseInt(latencies[2]);
+        l2 = options.l2Cache.equals("none") ? null : parse("L2", options.l2Cache, l2Latency, null, memoryLatency);
+        l1i = parse("L1I", options.l1iCache, l1Latency, l2, memoryLatency);
+        l1d = parse("L1D", options.l1dCache, l1Latency, l2, memoryLatency);
+    }
+
+    /** SIZE,WAYS,LINE[,wb|wt], where SIZE can end in k */
+    private static Cache parse(String name, String spec, int latency, Cache next, int memoryLatency)
+    {
+        String[] parts = spec.split(",");
+        if (!(parts.length == 3 || parts.length == 4))
+            throw new RuntimeException(name + " must be SIZE,WAYS,LINE[,wb|wt]: " + spec);
+        String sizeString = parts[0].toLowerCase();
+        int size;
+        if (sizeString.endsWith("k"))
+            size = Integer.parseInt(sizeString.substring(0, sizeString.length() - 1)) * 1024;
+        else
+            size = Integer.parseInt(sizeString);
+        boolean writeBack = true;
+        if (parts.length == 4) {
+            if (parts[3].equals("wt"))
+                writeBack = false;
+            else if (!parts[3].equals("wb"))
+                throw new RuntimeException(name + " write policy must be wb or wt: " + parts[3]);
+        }
+        return new Cache(name, size, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), writeBack, latency, next, memoryLatency);
+    }
+
+    public void fetch(int address)
+    {
+        stallCycles += l1i.access(address, false) - l1i.latency;
+    }
+    public void load(int address)
+    {
+        stallCycles += l1d.access(address, false) - l1d.latency;
+    }
+    public void store(int address)
+    {
+        stallCycles += l1d.access(address, true) - l1d.latency;
+    }
+
+    /** instructions is the number of instructions run, each of which is assumed to take one cycle plus stalls */
+    public String getStatistics(long instructions)
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append(l1i).append('\n');
+        builder.append(l1d).append('\n');
+        if (l2 != null)
+            builder.append(l2).append('\n');
+        long cycles = instructions + stallCycles;
+        builder.append("estimated cycles: ").append(cycles).append(" (").append(stallCycles).append(" stalled");
+        if (instructions != 0)
+            builder.append(String.format(", CPI %.3f", (double)cycles / instructions));
+        builder.append(")");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * runs every load and store past the data side of a {@link CacheHierarchy}, then does it for real.
+ * bulk transfers are syscalls and program loading, which don't go through the cache.
+ * instruction fetches are the simulator's job, because the decode cache hides most of them from us.
+ */
+public class CachedMemory extends Memory
+{
+    private final Memory memory;
+    private final CacheHierarchy caches;
+
+    public CachedMemory(Memory memory, CacheHierarchy caches)
+    {
+        this.memory = memory;
+        this.caches = caches;
+    }
+
+    Memory getMemory()
+    {
+        return memory;
+    }
+
+    @Override
+    void setDecodeCache(DecodeCache decodeCache)
+    {
+        super.setDecodeCache(decodeCache);
+        // the real stores happen in there
+        memory.setDecodeCache(decodeCache);
+    }
+
+    @Override
+    public void storeBytes(byte[] bytes, int offset, int length, int address)
+    {
+        memory.storeBytes(bytes, offset, length, address);
+    }
+    @Override
+    public void storeBytes(ByteBuffer buffer, int address)
+    {
+        memory.storeBytes(buffer, address);
+    }
+    @Override
+    public void loadBytes(int address, byte[] bytes, int offset, int length)
+    {
+        memory.loadBytes(address, bytes, offset, length);
+    }
+    @Override
+    public void loadBytes(int address, ByteBuffer buffer)
+    {
+        memory.loadBytes(address, buffer);
+    }
+
+    @Override
+    public byte loadByte(int address)
+    {
+        caches.load(address);
+        return memory.loadByte(address);
+    }
+    @Override
+    public void storeByte(int address, byte value)
+    {
+        caches.store(address);
+        memory.storeByte(address, value);
+    }
+    @Override
+    public short loadHalf(int address)
+    {
+        caches.load(address);
+        return memory.loadHalf(address);
+    }
+    @Override
+    public void storeHalf(int address, short value)
+    {
+        caches.store(address);
+        memory.storeHalf(address, value);
+    }
+    @Override
+    public int loadWord(int address)
+    {
+        caches.load(address);
+        return memory.loadWord(address);
+    }
+    @Override
+    public int fetchWord(int address)
+    {
+        return memory.fetchWord(address);
+    }
+    @Override
+    public void storeWord(int address, int value)
+    {
+        caches.store(address);
+        memory.storeWord(address, value);
+    }
+    @Override
+    public long loadDword(int address)
+    {
+        caches.load(address);
+        return memory.loadDword(address);
+    }
+    @Override
+    public void storeDword(int address, long value)
+    {
+        caches.store(address);
+        memory.storeDword(address, value);
+    }
+
+    @Override
+    public void visitPages(PageVisitor visitor) throws IOException
+    {
+        memory.visitPages(visitor);
+    }
+
+    @Override
+    public int getPageSize()
+    {
+        return memory.getPageSize();
+    }
+
+    @Override
+    public void flush()
+    {
+        memory.flush();
+    }
+    @Override
+    public String getStatistics()
+    {
+        return memory.getStatistics();
+    }
+}
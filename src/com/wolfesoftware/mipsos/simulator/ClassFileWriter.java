@@ -0,0 +1,292 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * just enough of the JVM class file format to emit classes with a constructor and a few methods.
+ * writes version 49 class files so that the verifier doesn't want stack map frames.
+ */
+public class ClassFileWriter
+{
+    private static final int MAGIC_NUMBER = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_Utf8 = 1;
+    private static final int CONSTANT_Integer = 3;
+    private static final int CONSTANT_Class = 7;
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+    private final HashMap<String, Integer> constantIndexes = new HashMap<String, Integer>();
+    private int constantCount = 1; // index 0 is never used
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final int thisClass;
+    private final int superClass;
+
+    /** class names are in internal form, like "java/lang/Object" */
+    public ClassFileWriter(String className, String superClassName)
+    {
+        thisClass = classRef(className);
+        superClass = classRef(superClassName);
+    }
+
+    public int utf8(String value)
+    {
+        String key = "utf8:" + value;
+        Integer index = constantIndexes.get(key);
+        if (index != null)
+            return index;
+        try {
+            constantPool.writeByte(CONSTANT_Utf8);
+            constantPool.writeUTF(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newConstant(key, 1);
+    }
+    public int integer(int value)
+    {
+        String key = "int:" + value;
+        Integer index = constantIndexes.get(key);
+        if (index != null)
+            return index;
+        try {
+            constantPool.writeByte(CONSTANT_Integer);
+            constantPool.writeInt(value);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newConstant(key, 1);
+    }
+    public int classRef(String className)
+    {
+        String key = "class:" + className;
+        Integer index = constantIndexes.get(key);
+        if (index != null)
+            return index;
+        int nameIndex = utf8(className);
+        try {
+            constantPool.writeByte(CONSTANT_Class);
+            constantPool.writeShort(nameIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newConstant(key, 1);
+    }
+    public int methodRef(String className, String name, String descriptor)
+    {
+        String key = "method:" + className + "." + name + descriptor;
+        Integer index = constantIndexes.get(key);
+        if (index != null)
+            return index;
+        int classIndex = classRef(className);
+        int nameAndTypeIndex = nameAndType(name, descriptor);
+        try {
+            constantPool.writeByte(CONSTANT_Methodref);
+            constantPool.writeShort(classIndex);
+            constantPool.writeShort(nameAndTypeIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newConstant(key, 1);
+    }
+    private int nameAndType(String name, String descriptor)
+    {
+        String key = "nameAndType:" + name + descriptor;
+        Integer index = constantIndexes.get(key);
+        if (index != null)
+            return index;
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        try {
+            constantPool.writeByte(CONSTANT_NameAndType);
+            constantPool.writeShort(nameIndex);
+            constantPool.writeShort(descriptorIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return newConstant(key, 1);
+    }
+    private int newConstant(String key, int slots)
+    {
+        int index = constantCount;
+        constantCount += slots;
+        constantIndexes.put(key, index);
+        return index;
+    }
+
+    public void addMethod(int accessFlags, String name, String descriptor, Code code)
+    {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeAttributeName = utf8("Code");
+        byte[] bytecode = code.toByteArray();
+        try {
+            methods.writeShort(accessFlags);
+            methods.writeShort(nameIndex);
+            methods.writeShort(descriptorIndex);
+            methods.writeShort(1); // attributes
+            methods.writeShort(codeAttributeName);
+            methods.writeInt(2 + 2 + 4 + bytecode.length + 2 + 2);
+            methods.writeShort(code.maxStack);
+            methods.writeShort(code.maxLocals);
+            methods.writeInt(bytecode.length);
+            methods.write(bytecode);
+            methods.writeShort(0); // exception table
+            methods.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        methodCount++;
+    }
+
+    public byte[] toByteArray()
+    {
+        try {
+            ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(outBytes);
+            out.writeInt(MAGIC_NUMBER);
+            out.writeShort(0); // minor version
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(constantCount);
+            constantPoolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // attributes
+            return outBytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * a method body under construction. only has the opcodes somebody has needed so far.
+     */
+    public static class Code
+    {
+        public static final int ICONST_M1 = 0x02;
+        public static final int ICONST_0 = 0x03;
+        public static final int ICONST_1 = 0x04;
+        public static final int BIPUSH = 0x10;
+        public static final int SIPUSH = 0x11;
+        public static final int LDC_W = 0x13;
+        public static final int ILOAD = 0x15;
+        public static final int ALOAD = 0x19;
+        public static final int IALOAD = 0x2E;
+        public static final int ISTORE = 0x36;
+        public static final int IASTORE = 0x4F;
+        public static final int POP = 0x57;
+        public static final int IADD = 0x60;
+        public static final int ISUB = 0x64;
+        public static final int ISHL = 0x78;
+        public static final int ISHR = 0x7A;
+        public static final int IUSHR = 0x7C;
+        public static final int IAND = 0x7E;
+        public static final int IOR = 0x80;
+        public static final int IXOR = 0x82;
+        public static final int I2B = 0x91;
+        public static final int I2S = 0x93;
+        public static final int IF_ICMPEQ = 0x9F;
+        public static final int IF_ICMPNE = 0xA0;
+        public static final int IF_ICMPGE = 0xA2;
+        public static final int GOTO = 0xA7;
+        public static final int IRETURN = 0xAC;
+        public static final int RETURN = 0xB1;
+        public static final int INVOKEVIRTUAL = 0xB6;
+        public static final int INVOKESPECIAL = 0xB7;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        /** where each label ended up, or -1 if it hasn't been placed yet */
+        private final ArrayList<Integer> labelPositions = new ArrayList<Integer>();
+        /** jumps to labels, as {where the jump is, label}. the offsets get filled in at the end. */
+        private final ArrayList<int[]> labelJumps = new ArrayList<int[]>();
+        public final int maxStack;
+        public final int maxLocals;
+
+        public Code(int maxStack, int maxLocals)
+        {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals;
+        }
+
+        public void op(int opcode)
+        {
+            bytes.write(opcode);
+        }
+        public void op1(int opcode, int operand)
+        {
+            bytes.write(opcode);
+            bytes.write(operand);
+        }
+        public void op2(int opcode, int operand)
+        {
+            bytes.write(opcode);
+            bytes.write(operand >> 8);
+            bytes.write(operand);
+        }
+
+        /** pushes any int constant with the smallest instruction that fits */
+        public void pushInt(ClassFileWriter classFile, int value)
+        {
+            if (-1 <= value && value <= 5)
+                op(ICONST_0 + value);
+            else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE)
+                op1(BIPUSH, value);
+            else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE)
+                op2(SIPUSH, value);
+            else
+                op2(LDC_W, classFile.integer(value));
+        }
+
+        /** a place to jump to that can be placed later with {@link #placeLabel(int)} */
+        public int newLabel()
+        {
+            labelPositions.add(-1);
+            return labelPositions.size() - 1;
+        }
+        public void placeLabel(int label)
+        {
+            labelPositions.set(label, bytes.size());
+        }
+        /** a branch or goto to a label, placed or not */
+        public void jump(int opcode, int label)
+        {
+            labelJumps.add(new int[] { bytes.size(), label });
+            op2(opcode, 0);
+        }
+
+        public int length()
+        {
+            return bytes.size();
+        }
+        public byte[] toByteArray()
+        {
+            byte[] result = bytes.toByteArray();
+            for (int[] jump : labelJumps) {
+                int position = labelPositions.get(jump[1]);
+                if (position == -1)
+                    throw new RuntimeException("jump to a label that was never placed");
+                int offset = position - jump[0];
+                result[jump[0] + 1] = (byte)(offset >> 8);
+                result[jump[0] + 2] = (byte)offset;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * superclass of the classes {@link BlockCompiler} generates.
+ * has to be public since the generated classes live in their own class loader.
+ */
+public abstract class CompiledBlock
+{
+    /**
+     * runs the start of a {@link BasicBlock} and returns the index of the first instruction that wasn't run.
+     * stops early right after a store that made the decode cache throw something out.
+     */
+    public abstract int execute(int[] registers, Memory memory, DecodeCache decodeCache);
+}
@@ -0,0 +1,142 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.util.*;
+
+/**
+ * remembers decoded instructions by address so that loops don't fetch and decode the same words over and over.
+ * {@link Memory} tells us about every store, and a store into a page we've cached throws out that whole page.
+ */
+public class DecodeCache
+{
+    private static final int PAGE_SIZE_EXPONENT = 10;
+    private static final int INSTRS_PER_PAGE = 1 << (PAGE_SIZE_EXPONENT - 2);
+
+    private final Memory memory;
+    /** blocks stop short of these so the simulator gets a chance to look */
+    private final BreakpointMap breakpoints;
+    private final HashMap<Integer, DecodedInstr[]> pages = new HashMap<Integer, DecodedInstr[]>();
+    // basic blocks by start address. these pages are thrown out along with the decoded instruction pages.
+    private final HashMap<Integer, BasicBlock[]> blockPages = new HashMap<Integer, BasicBlock[]>();
+    private int lastBlockPageIndex = -1;
+    private BasicBlock[] lastBlockPage = null;
+    /** bumped every time a page is thrown out */
+    private int invalidationCount = 0;
+    // most fetches are from the same page as the last one
+    private int lastPageIndex = -1;
+    private DecodedInstr[] lastPage = null;
+    // bounds of every page we've ever cached, so stores to data and stack don't need a lookup
+    private int lowPageIndex = Integer.MAX_VALUE;
+    private int highPageIndex = -1;
+
+    public DecodeCache(Memory memory, BreakpointMap breakpoints)
+    {
+        this.memory = memory;
+        this.breakpoints = breakpoints;
+        memory.setDecodeCache(this);
+    }
+
+    public DecodedInstr get(int address)
+    {
+        int pageIndex = address >>> PAGE_SIZE_EXPONENT;
+        DecodedInstr[] page;
+        if (pageIndex == lastPageIndex) {
+            page = lastPage;
+        } else {
+            page = pages.get(pageIndex);
+            if (page == null) {
+                page = new DecodedInstr[INSTRS_PER_PAGE];
+                pages.put(pageIndex, page);
+                lowPageIndex = Math.min(lowPageIndex, pageIndex);
+                highPageIndex = Math.max(highPageIndex, pageIndex);
+            }
+            lastPageIndex = pageIndex;
+            lastPage = page;
+        }
+        int index = (address >>> 2) & (INSTRS_PER_PAGE - 1);
+        DecodedInstr decodedInstr = page[index];
+        if (decodedInstr == null) {
+            decodedInstr = DecodedInstr.decode(memory.fetchWord(address), address);
+            page[index] = decodedInstr;
+        }
+        return decodedInstr;
+    }
+
+    public BasicBlock getBlock(int address)
+    {
+        int pageIndex = address >>> PAGE_SIZE_EXPONENT;
+        BasicBlock[] blockPage;
+        if (pageIndex == lastBlockPageIndex) {
+            blockPage = lastBlockPage;
+        } else {
+            blockPage = blockPages.get(pageIndex);
+            if (blockPage == null) {
+                blockPage = new BasicBlock[INSTRS_PER_PAGE];
+                blockPages.put(pageIndex, blockPage);
+            }
+            lastBlockPageIndex = pageIndex;
+            lastBlockPage = blockPage;
+        }
+        int index = (address >>> 2) & (INSTRS_PER_PAGE - 1);
+        BasicBlock block = blockPage[index];
+        if (block == null) {
+            block = translateBlock(address);
+            blockPage[index] = block;
+        }
+        return block;
+    }
+
+    private BasicBlock translateBlock(int address)
+    {
+        ArrayList<DecodedInstr> instrs = new ArrayList<DecodedInstr>();
+        int cursor = address;
+        while (true) {
+            DecodedInstr decodedInstr = get(cursor);
+            instrs.add(decodedInstr);
+            if (decodedInstr.endsBlock)
+                break;
+            cursor += 4;
+            if ((cursor & ((1 << PAGE_SIZE_EXPONENT) - 1)) == 0)
+                break; // stay within the page
+            if (breakpoints.contains(cursor))
+                break;
+        }
+        return new BasicBlock(address, instrs.toArray(new DecodedInstr[instrs.size()]));
+    }
+
+    public int getInvalidationCount()
+    {
+        return invalidationCount;
+    }
+
+    /** throws out every block, but keeps the decoded instructions */
+    public void flushBlocks()
+    {
+        blockPages.clear();
+        lastBlockPageIndex = -1;
+        lastBlockPage = null;
+    }
+
+    /** called by {@link Memory} for every store */
+    public void invalidate(int address, int length)
+    {
+        int firstPageIndex = address >>> PAGE_SIZE_EXPONENT;
+        int lastPageIndex = (address + length - 1) >>> PAGE_SIZE_EXPONENT;
+        if (lastPageIndex < lowPageIndex || firstPageIndex > highPageIndex)
+            return;
+        firstPageIndex = Math.max(firstPageIndex, lowPageIndex);
+        lastPageIndex = Math.min(lastPageIndex, highPageIndex);
+        for (int pageIndex = firstPageIndex; pageIndex <= lastPageIndex; pageIndex++) {
+            if (pages.remove(pageIndex) == null)
+                continue;
+            invalidationCount++;
+            if (pageIndex == this.lastPageIndex) {
+                this.lastPageIndex = -1;
+                lastPage = null;
+            }
+            if (blockPages.remove(pageIndex) != null && pageIndex == lastBlockPageIndex) {
+                lastBlockPageIndex = -1;
+                lastBlockPage = null;
+            }
+        }
+    }
+}
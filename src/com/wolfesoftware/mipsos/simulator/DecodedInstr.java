@@ -0,0 +1,73 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * an instruction word with all its fields already extracted.
+ * the jump target is resolved against the address the word was fetched from.
+ */
+public class DecodedInstr
+{
+    public final MipsInstr instr;
+    public final int rs;
+    public final int rt;
+    public final int rd;
+    public final int shamt;
+    public final int zeroExtImm;
+    public final int signExtImm;
+    public final int targetAddress;
+    /** true for anything that has to be the last instruction in a {@link BasicBlock} */
+    public final boolean endsBlock;
+
+    private DecodedInstr(MipsInstr instr, int rs, int rt, int rd, int shamt, int zeroExtImm, int signExtImm, int targetAddress)
+    {
+        this.instr = instr;
+        this.rs = rs;
+        this.rt = rt;
+        this.rd = rd;
+        this.shamt = shamt;
+        this.zeroExtImm = zeroExtImm;
+        this.signExtImm = signExtImm;
+        this.targetAddress = targetAddress;
+        this.endsBlock = endsBlock(instr);
+    }
+
+    private static boolean endsBlock(MipsInstr instr)
+    {
+        if (instr == null)
+            return true; // let it crash where the interpreter would
+        switch (instr) {
+            case BEQ:
+            case BNE:
+            case J:
+            case JAL:
+            case JALR:
+            case JR:
+            case BREAK:
+            case SYSCALL:
+            case MFC0:
+            case MTC0:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static DecodedInstr decode(int instruction, int address)
+    {
+        // get all possible fields
+        int opcode = instruction >>> 26;
+        int rs = instruction >> 21 & 0x1F;
+        int rt = instruction >> 16 & 0x1F;
+        int rd = instruction >> 11 & 0x1F;
+        int shamt = instruction >> 6 & 0x1F;
+        int funct = instruction & 0x3F;
+        int zeroExtImm = instruction & 0xFFFF;
+        int signExtImm = ((zeroExtImm & 0x8000) == 0 ? zeroExtImm : zeroExtImm - 0x10000);
+        int target = instruction & 0x02FFFFFF;
+        // the pc has already moved past this instruction when the target is used
+        int targetAddress = ((address + 4) & 0xF0000000) | (target << 2);
+
+        // get instruction from opcode and maybe funct
+        MipsInstr instr = MipsInstr.fromOpcodeRsFunct(opcode, rs, funct);
+        return new DecodedInstr(instr, rs, rt, rd, shamt, zeroExtImm, signExtImm, targetAddress);
+    }
+}
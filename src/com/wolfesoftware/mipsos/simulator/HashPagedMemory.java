@@ -0,0 +1,47 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * pages in a HashMap. small pages are cheap for sparse programs, but every access costs a lookup.
+ */
+public class HashPagedMemory extends PagedMemory
+{
+    private final HashMap<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
+
+    public HashPagedMemory(int pageSizeExponent)
+    {
+        super(pageSizeExponent);
+    }
+
+    @Override
+    protected byte[] getPage(int address)
+    {
+        int pageIndex = address >>> pageSizeExponent;
+        byte[] page = pages.get(pageIndex);
+        if (page == null) {
+            page = new byte[pageSize];
+            pages.put(pageIndex, page);
+        }
+        return page;
+    }
+
+    @Override
+    protected void putPage(int address, byte[] page)
+    {
+        pages.put(address >>> pageSizeExponent, page);
+    }
+    @Override
+    protected PagedMemory newEmpty()
+    {
+        return new HashPagedMemory(pageSizeExponent);
+    }
+
+    @Override
+    public void visitPages(PageVisitor visitor) throws IOException
+    {
+        for (Map.Entry<Integer, byte[]> entry : pages.entrySet())
+            visitor.visit(entry.getKey() << pageSizeExponent, entry.getValue(), 0, pageSize);
+    }
+}
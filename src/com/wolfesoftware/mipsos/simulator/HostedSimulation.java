@@ -0,0 +1,185 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * one program running in a {@link SimulationHost}. input and output go through queues, so nothing here ever blocks
+ * except {@link #awaitDone()}.
+ */
+public class HostedSimulation implements Runnable
+{
+    public enum State {
+        Running, WaitingForInput, Done, OutOfBudget, Crashed
+    }
+
+    private final SimulationHost host;
+    final Simulator simulator;
+    private final QueueListener listener = new QueueListener();
+    private final long budget;
+    private long instructions = 0;
+
+    private volatile State state = State.Running;
+    private volatile Throwable crash = null;
+    private final CountDownLatch doneLatch = new CountDownLatch(1);
+
+    HostedSimulation(SimulationHost host, SimulatorOptions options, long budget)
+    {
+        this.host = host;
+        this.budget = budget;
+        simulator = new Simulator(options, listener);
+    }
+
+    public State getState()
+    {
+        return state;
+    }
+    /** what went wrong if the state is {@link State#Crashed} */
+    public Throwable getCrash()
+    {
+        return crash;
+    }
+    public long getInstructions()
+    {
+        return instructions;
+    }
+
+    /** queues up stdin for the program. wakes it up if it was waiting. */
+    public void offerInput(byte[] bytes)
+    {
+        listener.input.add(bytes.clone());
+        wakeUp();
+    }
+    /** after the queued input runs out, the program sees end of file instead of waiting */
+    public void closeInput()
+    {
+        listener.inputClosed = true;
+        wakeUp();
+    }
+    private synchronized void wakeUp()
+    {
+        if (state != State.WaitingForInput)
+            return;
+        state = State.Running;
+        host.schedule(this);
+    }
+
+    /** takes whatever the program has printed since last time. never null. */
+    public byte[] pollOutput()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk;
+        while ((chunk = listener.output.poll()) != null)
+            bytes.write(chunk, 0, chunk.length);
+        return bytes.toByteArray();
+    }
+
+    /** waits until the program is done one way or another */
+    public State awaitDone() throws InterruptedException
+    {
+        doneLatch.await();
+        return state;
+    }
+
+    /** runs one time slice. only the host calls this. */
+    public void run()
+    {
+        long sliceBudget = host.slice;
+        if (budget != 0)
+            sliceBudget = Math.min(sliceBudget, budget - instructions);
+        long startCount = simulator.getInstructionCount();
+        StopReason reason;
+        try {
+            reason = simulator.run(sliceBudget);
+        } catch (Throwable e) {
+            crash = e;
+            finish(State.Crashed);
+            return;
+        } finally {
+            instructions += simulator.getInstructionCount() - startCount;
+            listener.flush();
+        }
+
+        if (reason == StopReason.Done) {
+            finish(State.Done);
+        } else if (budget != 0 && instructions >= budget) {
+            finish(State.OutOfBudget);
+        } else if (reason == StopReason.Stdin) {
+            synchronized (this) {
+                // input might have shown up while we were finishing the slice
+                if (listener.input.isEmpty() && !listener.inputClosed)
+                    state = State.WaitingForInput;
+                else
+                    host.schedule(this);
+            }
+        } else {
+            // break instructions don't mean anything here.
+            // back of the line
+            host.schedule(this);
+        }
+    }
+    private void finish(State finalState)
+    {
+        state = finalState;
+        doneLatch.countDown();
+    }
+
+    /** only ever used by one thread at a time, apart from the queues */
+    private static class QueueListener implements ISimulatorListener
+    {
+        final ConcurrentLinkedQueue<byte[]> input = new ConcurrentLinkedQueue<byte[]>();
+        volatile boolean inputClosed = false;
+        final ConcurrentLinkedQueue<byte[]> output = new ConcurrentLinkedQueue<byte[]>();
+
+        private byte[] inputChunk = new byte[0];
+        private int inputCursor = 0;
+        private byte[] outputBuffer = new byte[0x100];
+        private int outputLength = 0;
+
+        @Override
+        public void printCharacter(char c)
+        {
+            ensureOutputSpace(1);
+            outputBuffer[outputLength++] = (byte)c;
+        }
+        @Override
+        public void printBytes(byte[] bytes, int offset, int length)
+        {
+            ensureOutputSpace(length);
+            System.arraycopy(bytes, offset, outputBuffer, outputLength, length);
+            outputLength += length;
+        }
+        private void ensureOutputSpace(int length)
+        {
+            if (outputLength + length > outputBuffer.length)
+                outputBuffer = Arrays.copyOf(outputBuffer, Math.max(outputBuffer.length * 2, outputLength + length));
+        }
+        @Override
+        public void flush()
+        {
+            if (outputLength == 0)
+                return;
+            output.add(Arrays.copyOf(outputBuffer, outputLength));
+            outputLength = 0;
+        }
+
+        @Override
+        public char readCharacter()
+        {
+            while (inputCursor == inputChunk.length) {
+                // check closed first so we don't miss input that came right before the close
+                boolean closed = inputClosed;
+                byte[] chunk = input.poll();
+                if (chunk == null) {
+                    if (closed)
+                        return END_OF_INPUT;
+                    throw InputNotReadyException.INSTANCE;
+                }
+                inputChunk = chunk;
+                inputCursor = 0;
+            }
+            return (char)(inputChunk[inputCursor++] & 0xFF);
+        }
+    }
+}
@@ -1,33 +1,26 @@
 package com.wolfesoftware.mipsos.simulator;
 
-import java.io.IOException;
-
 /**
  * it'd be cool to not need this callback. how would stdout work?
  */
 public interface ISimulatorListener
 {
     void printCharacter(char c);
+    /** prints raw bytes. used for strings so we don't pay a call per character. */
+    void printBytes(byte[] bytes, int offset, int length);
+    /** called when the program exits, and whenever output had better be visible */
+    void flush();
+    /** what {@link #readCharacter()} returns once there's no more input */
+    char END_OF_INPUT = (char)-1;
+
+    /**
+     * can throw {@link InputNotReadyException} to back out of the syscall instead of blocking.
+     * returns {@link #END_OF_INPUT} at the end of input, and keeps returning it.
+     */
     char readCharacter();
 
     /**
-     * uses host stdin and stdout
+     * uses host stdin and stdout. flushes before reading input, and on every line if there's a human watching.
      */
-    ISimulatorListener STD_ADAPTER = new ISimulatorListener() {
-        @Override
-        public void printCharacter(char c)
-        {
-            System.out.print(c);
-        }
-        @Override
-        public char readCharacter()
-        {
-            try {
-                return (char)System.in.read();
-            } catch (IOException e) {
-                // yeah right.
-                throw new RuntimeException(e);
-            }
-        }
-    };
+    ISimulatorListener STD_ADAPTER = StdioListener.create(InputSource.fromStdin(), System.console() != null, true);
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * thrown by a listener that has no input yet and doesn't want to block.
+ * the simulator backs out of the syscall and reports {@link SimulatorStatus#Stdin}.
+ */
+public class InputNotReadyException extends RuntimeException
+{
+    private static final long serialVersionUID = 1L;
+
+    /** this happens a lot, so there's just the one */
+    public static final InputNotReadyException INSTANCE = new InputNotReadyException();
+
+    private InputNotReadyException()
+    {
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace()
+    {
+        return this;
+    }
+}
@@ -0,0 +1,97 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+/**
+ * where guest stdin comes from. reads from the host in big chunks, or maps a whole file at once,
+ * so that reading a character is usually just a buffer access.
+ */
+public abstract class InputSource
+{
+    /** returns the next byte, or -1 at the end of input */
+    public abstract int read();
+
+    /** the process's stdin, bypassing System.in */
+    public static InputSource fromStdin()
+    {
+        return new ChannelInputSource(new FileInputStream(FileDescriptor.in).getChannel());
+    }
+    /** maps the whole file into memory */
+    public static InputSource fromFile(String path)
+    {
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                return new BufferInputSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                // the mapping stays valid after the file is closed
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+    public static InputSource fromBytes(byte[] bytes)
+    {
+        return new BufferInputSource(ByteBuffer.wrap(bytes));
+    }
+
+    private static class ChannelInputSource extends InputSource
+    {
+        private static final int BUFFER_SIZE = 0x10000;
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean endOfInput = false;
+
+        public ChannelInputSource(ReadableByteChannel channel)
+        {
+            this.channel = channel;
+            buffer.flip(); // start out empty
+        }
+
+        @Override
+        public int read()
+        {
+            if (!buffer.hasRemaining()) {
+                if (endOfInput)
+                    return -1;
+                buffer.clear();
+                try {
+                    // blocks until there's at least something, which is a line at a time from a terminal
+                    int readCount;
+                    do {
+                        readCount = channel.read(buffer);
+                    } while (readCount == 0);
+                    if (readCount == -1)
+                        endOfInput = true;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                buffer.flip();
+                if (endOfInput)
+                    return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+    }
+
+    private static class BufferInputSource extends InputSource
+    {
+        private final ByteBuffer buffer;
+        public BufferInputSource(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+        @Override
+        public int read()
+        {
+            if (!buffer.hasRemaining())
+                return -1;
+            return buffer.get() & 0xFF;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * the whole 4GB address space as a sparse file mapped into memory outside the java heap.
+ * the file is mapped a chunk at a time the first time a chunk is touched, and the OS only
+ * allocates the pages that actually get written. after {@link #flush()}, the file is an image of guest memory.
+ */
+public class MappedMemory extends Memory
+{
+    private static final long ADDRESS_SPACE_SIZE = 1L << 32;
+    // a MappedByteBuffer can't be bigger than 2GB
+    private static final int CHUNK_SIZE_EXPONENT = 24;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SIZE_EXPONENT;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks = new MappedByteBuffer[(int)(ADDRESS_SPACE_SIZE >>> CHUNK_SIZE_EXPONENT)];
+    private int mappedChunkCount = 0;
+    private int lastChunkIndex = -1;
+    private MappedByteBuffer lastChunk = null;
+
+    /** pass null to use a temporary file that goes away when we exit */
+    public MappedMemory(String path)
+    {
+        try {
+            File backingFile;
+            if (path == null) {
+                backingFile = File.createTempFile("mips-os-memory", ".bin");
+                backingFile.deleteOnExit();
+            } else {
+                backingFile = new File(path);
+            }
+            file = new RandomAccessFile(backingFile, "rw");
+            // memory starts out zeroed, so throw away whatever an old run left in the file.
+            // growing it back doesn't allocate anything on file systems that support sparse files.
+            file.setLength(0);
+            file.setLength(ADDRESS_SPACE_SIZE);
+            channel = file.getChannel();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private MappedByteBuffer getChunk(int address)
+    {
+        int chunkIndex = address >>> CHUNK_SIZE_EXPONENT;
+        if (chunkIndex == lastChunkIndex)
+            return lastChunk;
+        MappedByteBuffer chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            try {
+                chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long)chunkIndex << CHUNK_SIZE_EXPONENT, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            chunks[chunkIndex] = chunk;
+            mappedChunkCount++;
+        }
+        lastChunkIndex = chunkIndex;
+        lastChunk = chunk;
+        return chunk;
+    }
+    private static int getChunkOffset(int address)
+    {
+        return address & (CHUNK_SIZE - 1);
+    }
+
+    @Override
+    public void visitPages(PageVisitor visitor) throws IOException
+    {
+        // a chunk is too big to hand out in one piece, and the parts that were never written read as zeros anyway
+        byte[] piece = new byte[0x1000];
+        for (int chunkIndex = 0; chunkIndex < chunks.length; chunkIndex++) {
+            if (chunks[chunkIndex] == null)
+                continue;
+            for (int offset = 0; offset < CHUNK_SIZE; offset += piece.length) {
+                int address = (chunkIndex << CHUNK_SIZE_EXPONENT) | offset;
+                loadBytes(address, piece, 0, piece.length);
+                visitor.visit(address, piece, 0, piece.length);
+            }
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        for (MappedByteBuffer chunk : chunks)
+            if (chunk != null)
+                chunk.force();
+    }
+
+    @Override
+    public void storeBytes(byte[] bytes, int offset, int length, int address)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, length);
+        int writtenCount = 0;
+        while (writtenCount < length) {
+            MappedByteBuffer chunk = getChunk(address + writtenCount);
+            int chunkOffset = getChunkOffset(address + writtenCount);
+            int chunkLength = Math.min(CHUNK_SIZE - chunkOffset, length - writtenCount);
+            ByteBuffer view = chunk.duplicate();
+            view.position(chunkOffset);
+            view.put(bytes, offset + writtenCount, chunkLength);
+            writtenCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void storeBytes(ByteBuffer buffer, int address)
+    {
+        int length = buffer.remaining();
+        if (decodeCache != null)
+            decodeCache.invalidate(address, length);
+        int writtenCount = 0;
+        while (writtenCount < length) {
+            int chunkOffset = getChunkOffset(address + writtenCount);
+            int chunkLength = Math.min(CHUNK_SIZE - chunkOffset, length - writtenCount);
+            ByteBuffer view = getChunk(address + writtenCount).duplicate();
+            view.position(chunkOffset);
+            ByteBuffer source = buffer.duplicate();
+            source.limit(source.position() + chunkLength);
+            view.put(source);
+            buffer.position(buffer.position() + chunkLength);
+            writtenCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void loadBytes(int address, byte[] bytes, int offset, int length)
+    {
+        int readCount = 0;
+        while (readCount < length) {
+            int chunkOffset = getChunkOffset(address + readCount);
+            int chunkLength = Math.min(CHUNK_SIZE - chunkOffset, length - readCount);
+            ByteBuffer view = getChunk(address + readCount).duplicate();
+            view.position(chunkOffset);
+            view.get(bytes, offset + readCount, chunkLength);
+            readCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void loadBytes(int address, ByteBuffer buffer)
+    {
+        int length = buffer.remaining();
+        int readCount = 0;
+        while (readCount < length) {
+            int chunkOffset = getChunkOffset(address + readCount);
+            int chunkLength = Math.min(CHUNK_SIZE - chunkOffset, length - readCount);
+            ByteBuffer view = getChunk(address + readCount).duplicate();
+            view.position(chunkOffset);
+            view.limit(chunkOffset + chunkLength);
+            buffer.put(view);
+            readCount += chunkLength;
+        }
+    }
+
+    @Override
+    public byte loadByte(int address)
+    {
+        return getChunk(address).get(getChunkOffset(address));
+    }
+    @Override
+    public void storeByte(int address, byte value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 1);
+        getChunk(address).put(getChunkOffset(address), value);
+    }
+    @Override
+    public short loadHalf(int address)
+    {
+        return getChunk(address).getShort(getChunkOffset(address));
+    }
+    @Override
+    public void storeHalf(int address, short value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 2);
+        getChunk(address).putShort(getChunkOffset(address), value);
+    }
+    @Override
+    public int loadWord(int address)
+    {
+        return getChunk(address).getInt(getChunkOffset(address));
+    }
+    @Override
+    public void storeWord(int address, int value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 4);
+        getChunk(address).putInt(getChunkOffset(address), value);
+    }
+    @Override
+    public long loadDword(int address)
+    {
+        return getChunk(address).getLong(getChunkOffset(address));
+    }
+    @Override
+    public void storeDword(int address, long value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 8);
+        getChunk(address).putLong(getChunkOffset(address), value);
+    }
+
+    @Override
+    public String getStatistics()
+    {
+        return "mapped chunks: " + mappedChunkCount + " of " + chunks.length + " (" + (CHUNK_SIZE >> 20) + "MB each)";
+    }
+}
@@ -1,133 +1,96 @@
 package com.wolfesoftware.mipsos.simulator;
 
-import java.util.HashMap;
-
-
-public class Memory
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * the simulated 32-bit address space. everything is big endian.
+ * implementations have to tell the {@link DecodeCache} about every store.
+ */
+public abstract class Memory
 {
-    private final HashMap<Integer, byte[]> pages = new HashMap<Integer, byte[]>();
-    private final int pageSizeExponent;
-    private final int pageSize;
-
-    public Memory(int pageSizeExponent)
-    {
-        this.pageSizeExponent = pageSizeExponent;
-        pageSize = 1 << pageSizeExponent;
-    }
-
-    public void storeBytes(byte[] bytes, int offset, int length, int address)
-    {
-        int writtenCount = 0;
-        while (writtenCount < length) {
-            byte[] page = getPage(address + writtenCount);
-            int pageOffset = getPageOffset(address + writtenCount);
-            int chunkLength = Math.min(page.length - pageOffset, length - writtenCount);
-            System.arraycopy(bytes, offset + writtenCount, page, pageOffset, chunkLength);
-            writtenCount += chunkLength;
-        }
-    }
+    /** set by the {@link DecodeCache} watching this memory */
+    DecodeCache decodeCache = null;
 
-    private int getPageOffset(int address)
+    /** wrappers pass this on to whatever actually does the stores */
+    void setDecodeCache(DecodeCache decodeCache)
     {
-        return address & (pageSize - 1);
+        this.decodeCache = decodeCache;
     }
 
-    private byte[] getPage(int address)
+    public static Memory create(SimulatorOptions options)
     {
-        int pageIndex = address >>> pageSizeExponent;
-        byte[] page = pages.get(pageIndex);
-        if (page == null) {
-            page = new byte[pageSize];
-            pages.put(pageIndex, page);
-        }
-        return page;
+        if (options.memory.equals(SimulatorOptions.MEMORY_HASH))
+            return new HashPagedMemory(options.pageSizeExponent);
+        if (options.memory.equals(SimulatorOptions.MEMORY_TABLE))
+            return new PageTableMemory();
+        if (options.memory.equals(SimulatorOptions.MEMORY_MAPPED))
+            return new MappedMemory(options.memoryFile);
+        throw new RuntimeException("unknown memory implementation: " + options.memory);
     }
 
-    public byte loadByte(int address)
+    public abstract void storeBytes(byte[] bytes, int offset, int length, int address);
+    /** stores all of the buffer's remaining bytes */
+    public abstract void storeBytes(ByteBuffer buffer, int address);
+    public abstract void loadBytes(int address, byte[] bytes, int offset, int length);
+    /** fills the rest of the buffer */
+    public abstract void loadBytes(int address, ByteBuffer buffer);
+
+    public abstract byte loadByte(int address);
+    public abstract void storeByte(int address, byte value);
+    public abstract short loadHalf(int address);
+    public abstract void storeHalf(int address, short value);
+    public abstract int loadWord(int address);
+    /** same as {@link #loadWord(int)}, but for instruction fetch */
+    public int fetchWord(int address)
     {
-        return getPage(address)[getPageOffset(address)];
+        return loadWord(address);
     }
+    public abstract void storeWord(int address, int value);
+    public abstract long loadDword(int address);
+    public abstract void storeDword(int address, long value);
 
-    public void storeByte(int address, byte value)
+    /** see {@link Memory#visitPages(PageVisitor)} */
+    public interface PageVisitor
     {
-        getPage(address)[getPageOffset(address)] = value;
+        void visit(int address, byte[] bytes, int offset, int length) throws IOException;
     }
-
-    public short loadHalf(int address)
-    {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        return (short)( //
-                (page[offset + 0] & 0xFF) << 8 | //
-                (page[offset + 1] & 0xFF) << 0 //
-        );
-    }
-
-    public void storeHalf(int address, short value)
-    {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        page[offset + 0] = (byte)((value & 0xFF00) >>> 8);
-        page[offset + 1] = (byte)((value & 0x00FF) >>> 0);
-    }
-
-    public int loadWord(int address)
+    /**
+     * calls back with every piece of memory that might not be all zeros, in no particular order.
+     * anything not visited is all zeros. the bytes are only good until the call returns.
+     */
+    public abstract void visitPages(PageVisitor visitor) throws IOException;
+
+    /** a copy that can be written without affecting this one, and the other way around */
+    public Memory fork()
     {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        return ( //
-                (page[offset + 0] & 0xFF) << 24 | //
-                (page[offset + 1] & 0xFF) << 16 | //
-                (page[offset + 2] & 0xFF) << 8 | //
-                (page[offset + 3] & 0xFF) << 0 //
-        );
+        throw new RuntimeException(getClass().getSimpleName() + " can't be forked");
     }
 
-    public void storeWord(int address, int value)
+    /**
+     * loads that stay inside one aligned piece this big only touch that piece. some memories make a page the first
+     * time it's read, so bulk reads that might not need all their bytes should go a piece at a time. a power of 2.
+     */
+    public int getPageSize()
     {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        page[offset + 0] = (byte)((value & 0xFF000000) >>> 24);
-        page[offset + 1] = (byte)((value & 0x00FF0000) >>> 16);
-        page[offset + 2] = (byte)((value & 0x0000FF00) >>> 8);
-        page[offset + 3] = (byte)((value & 0x000000FF) >>> 0);
+        return 0x1000;
     }
 
-    public long loadDword(int address)
+    /** makes sure any backing storage is up to date */
+    public void flush()
     {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        return ( //
-                ((long)page[offset + 0] & 0xFF) << 56 | //
-                ((long)page[offset + 1] & 0xFF) << 48 | //
-                ((long)page[offset + 2] & 0xFF) << 40 | //
-                ((long)page[offset + 3] & 0xFF) << 32 | //
-                ((long)page[offset + 4] & 0xFF) << 24 | //
-                ((long)page[offset + 5] & 0xFF) << 16 | //
-                ((long)page[offset + 6] & 0xFF) << 8 | //
-                ((long)page[offset + 7] & 0xFF) << 0 //
-        );
     }
 
-    public void storeDword(int address, long value)
+    /** a human readable report, or "" if there's nothing to report */
+    public String getStatistics()
     {
-        byte[] page = getPage(address);
-        int offset = getPageOffset(address);
-        page[offset + 0] = (byte)((value & 0xFF00000000000000L) >>> 56);
-        page[offset + 1] = (byte)((value & 0x00FF000000000000L) >>> 48);
-        page[offset + 2] = (byte)((value & 0x0000FF0000000000L) >>> 40);
-        page[offset + 3] = (byte)((value & 0x000000FF00000000L) >>> 32);
-        page[offset + 4] = (byte)((value & 0x00000000FF000000L) >>> 24);
-        page[offset + 5] = (byte)((value & 0x0000000000FF0000L) >>> 16);
-        page[offset + 6] = (byte)((value & 0x000000000000FF00L) >>> 8);
-        page[offset + 7] = (byte)((value & 0x00000000000000FFL) >>> 0);
+        return "";
     }
 
     public byte[] getMemory(int address, int length)
     {
         byte[] result = new byte[length];
-        for (int i = 0; i < length; i++)
-            result[i] = loadByte(address + i);
+        loadBytes(address, result, 0, length);
         return result;
     }
 }
@@ -12,9 +12,11 @@ public enum MipsInstr {
     // TODO: support unsigned arithmetic instructions
 
     private static HashMap<MipsInstr, Integer> hashToOpcode;
-    private static HashMap<Integer, MipsInstr> hashFromOpcode;
     private static HashMap<MipsInstr, Integer> hashToFunct;
-    private static HashMap<Integer, MipsInstr> hashFromFunct;
+    // dense decoding tables indexed directly by the 6-bit opcode and funct fields and the 5-bit cop0 rs field
+    private static final MipsInstr[] fromOpcodeTable = new MipsInstr[0x40];
+    private static final MipsInstr[] fromFunctTable = new MipsInstr[0x40];
+    private static final MipsInstr[] fromCop0RsTable = new MipsInstr[0x20];
     private static HashMap<MipsInstr, String> hashToString;
     private static HashMap<String, MipsInstr> hashFromString;
 
@@ -25,7 +27,7 @@ public enum MipsInstr {
 
     public static MipsInstr fromOpcode(int opcode)
     {
-        return hashFromOpcode.get(opcode);
+        return fromOpcodeTable[opcode];
     }
 
     public Integer getFunct()
@@ -37,18 +39,11 @@ public enum MipsInstr {
     {
         switch (opcode) {
             case 0:
-                return hashFromFunct.get(funct);
+                return fromFunctTable[funct];
             case 0x10:
-                switch (rs) {
-                    case 0:
-                        return MFC0;
-                    case 4:
-                        return MTC0;
-                    default:
-                        return null;
-                }
+                return fromCop0RsTable[rs];
             default:
-                return fromOpcode(opcode);
+                return fromOpcodeTable[opcode];
         }
     }
 
@@ -97,12 +92,11 @@ public enum MipsInstr {
         hashToOpcode.put(XORI, 0x0E);
 
         // from opcode
-        hashFromOpcode = new HashMap<Integer, MipsInstr>(16);
-        hashFromOpcode.put(0x00, MipsInstr.Ambiguous);
+        fromOpcodeTable[0x00] = MipsInstr.Ambiguous;
         for (MipsInstr instr : hashToOpcode.keySet()) {
-            Integer opcode = hashToOpcode.get(instr);
+            int opcode = hashToOpcode.get(instr);
             if (opcode != 0x00)
-                hashFromOpcode.put(opcode, instr);
+                fromOpcodeTable[opcode] = instr;
         }
 
         // to funct
@@ -133,9 +127,15 @@ public enum MipsInstr {
         hashToFunct.put(XOR, 0x26);
 
         // from funct
-        hashFromFunct = new HashMap<Integer, MipsInstr>(hashToFunct.size());
-        for (MipsInstr instr : hashToFunct.keySet())
-            hashFromFunct.put(hashToFunct.get(instr), instr);
+        for (MipsInstr instr : hashToFunct.keySet()) {
+            // NOP is just the all-zero SLL. decoding it as NOP would drop real shifts.
+            if (instr != NOP)
+                fromFunctTable[hashToFunct.get(instr)] = instr;
+        }
+
+        // from cop0 rs
+        fromCop0RsTable[0x00] = MFC0;
+        fromCop0RsTable[0x04] = MTC0;
 
         // to/from String
         MipsInstr[] instrs = MipsInstr.values();
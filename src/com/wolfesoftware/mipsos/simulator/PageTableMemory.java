@@ -0,0 +1,79 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.IOException;
+
+/**
+ * a two level page table like the hardware would use. the address is split 10/10/12:
+ * directory index, table index, and offset into a 4KB page.
+ * consecutive accesses usually land on the same page, so that one is remembered.
+ */
+public class PageTableMemory extends PagedMemory
+{
+    private static final int PAGE_SIZE_EXPONENT = 12;
+    private static final int TABLE_SIZE_EXPONENT = 10;
+    private static final int TABLE_SIZE = 1 << TABLE_SIZE_EXPONENT;
+
+    private final byte[][][] directory = new byte[1 << (32 - PAGE_SIZE_EXPONENT - TABLE_SIZE_EXPONENT)][][];
+    private int lastPageIndex = -1;
+    private byte[] lastPage = null;
+
+    public PageTableMemory()
+    {
+        super(PAGE_SIZE_EXPONENT);
+    }
+
+    @Override
+    protected byte[] getPage(int address)
+    {
+        int pageIndex = address >>> PAGE_SIZE_EXPONENT;
+        if (pageIndex == lastPageIndex)
+            return lastPage;
+        byte[][] table = directory[pageIndex >>> TABLE_SIZE_EXPONENT];
+        if (table == null) {
+            table = new byte[TABLE_SIZE][];
+            directory[pageIndex >>> TABLE_SIZE_EXPONENT] = table;
+        }
+        byte[] page = table[pageIndex & (TABLE_SIZE - 1)];
+        if (page == null) {
+            page = new byte[pageSize];
+            table[pageIndex & (TABLE_SIZE - 1)] = page;
+        }
+        lastPageIndex = pageIndex;
+        lastPage = page;
+        return page;
+    }
+
+    @Override
+    protected void putPage(int address, byte[] page)
+    {
+        int pageIndex = address >>> PAGE_SIZE_EXPONENT;
+        byte[][] table = directory[pageIndex >>> TABLE_SIZE_EXPONENT];
+        if (table == null) {
+            table = new byte[TABLE_SIZE][];
+            directory[pageIndex >>> TABLE_SIZE_EXPONENT] = table;
+        }
+        table[pageIndex & (TABLE_SIZE - 1)] = page;
+        if (pageIndex == lastPageIndex)
+            lastPage = page;
+    }
+    @Override
+    protected PagedMemory newEmpty()
+    {
+        return new PageTableMemory();
+    }
+
+    @Override
+    public void visitPages(PageVisitor visitor) throws IOException
+    {
+        for (int directoryIndex = 0; directoryIndex < directory.length; directoryIndex++) {
+            byte[][] table = directory[directoryIndex];
+            if (table == null)
+                continue;
+            for (int tableIndex = 0; tableIndex < TABLE_SIZE; tableIndex++) {
+                byte[] page = table[tableIndex];
+                if (page != null)
+                    visitor.visit(((directoryIndex << TABLE_SIZE_EXPONENT) | tableIndex) << PAGE_SIZE_EXPONENT, page, 0, pageSize);
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.lang.invoke.*;
+import java.io.IOException;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * memory made of byte[] pages. subclasses decide how to find a page.
+ * halves, words and dwords are read and written in one go through big endian views of the pages.
+ * forked memories share pages until somebody writes to one, and then the writer gets its own copy.
+ */
+public abstract class PagedMemory extends Memory
+{
+    private static final VarHandle SHORT_VIEW = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    protected final int pageSizeExponent;
+    protected final int pageSize;
+    // separate so that instruction fetch, data loads and stores don't knock each other out
+    public final Tlb fetchTlb = new Tlb("fetch", false);
+    public final Tlb loadTlb = new Tlb("load", false);
+    public final Tlb storeTlb = new Tlb("store", true);
+    /** pages another memory might be looking at too. by identity, not contents. */
+    private final Set<byte[]> sharedPages = Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+
+    public PagedMemory(int pageSizeExponent)
+    {
+        this.pageSizeExponent = pageSizeExponent;
+        pageSize = 1 << pageSizeExponent;
+    }
+
+    @Override
+    public void storeBytes(byte[] bytes, int offset, int length, int address)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, length);
+        int writtenCount = 0;
+        while (writtenCount < length) {
+            byte[] page = getWritablePage(address + writtenCount);
+            int pageOffset = getPageOffset(address + writtenCount);
+            int chunkLength = Math.min(page.length - pageOffset, length - writtenCount);
+            System.arraycopy(bytes, offset + writtenCount, page, pageOffset, chunkLength);
+            writtenCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void storeBytes(ByteBuffer buffer, int address)
+    {
+        int length = buffer.remaining();
+        if (decodeCache != null)
+            decodeCache.invalidate(address, length);
+        int writtenCount = 0;
+        while (writtenCount < length) {
+            byte[] page = getWritablePage(address + writtenCount);
+            int pageOffset = getPageOffset(address + writtenCount);
+            int chunkLength = Math.min(page.length - pageOffset, length - writtenCount);
+            buffer.get(page, pageOffset, chunkLength);
+            writtenCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void loadBytes(int address, byte[] bytes, int offset, int length)
+    {
+        int readCount = 0;
+        while (readCount < length) {
+            byte[] page = getPage(address + readCount);
+            int pageOffset = getPageOffset(address + readCount);
+            int chunkLength = Math.min(page.length - pageOffset, length - readCount);
+            System.arraycopy(page, pageOffset, bytes, offset + readCount, chunkLength);
+            readCount += chunkLength;
+        }
+    }
+
+    @Override
+    public void loadBytes(int address, ByteBuffer buffer)
+    {
+        int length = buffer.remaining();
+        int readCount = 0;
+        while (readCount < length) {
+            byte[] page = getPage(address + readCount);
+            int pageOffset = getPageOffset(address + readCount);
+            int chunkLength = Math.min(page.length - pageOffset, length - readCount);
+            buffer.put(page, pageOffset, chunkLength);
+            readCount += chunkLength;
+        }
+    }
+
+    @Override
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    private int getPageOffset(int address)
+    {
+        return address & (pageSize - 1);
+    }
+
+    /** never returns null. makes a new zeroed page if there isn't one yet. */
+    protected abstract byte[] getPage(int address);
+    /** replaces the page that has this address in it */
+    protected abstract void putPage(int address, byte[] page);
+    /** an empty memory of the same kind */
+    protected abstract PagedMemory newEmpty();
+
+    /** like {@link #getPage(int)}, but copies the page first if anyone else can see it */
+    private byte[] getWritablePage(int address)
+    {
+        byte[] page = getPage(address);
+        if (sharedPages.isEmpty() || !sharedPages.remove(page))
+            return page;
+        page = page.clone();
+        putPage(address, page);
+        // these would keep reading the old copy
+        fetchTlb.forget(address);
+        loadTlb.forget(address);
+        return page;
+    }
+
+    @Override
+    public Memory fork()
+    {
+        final PagedMemory child = newEmpty();
+        try {
+            visitPages(new PageVisitor() {
+                public void visit(int address, byte[] bytes, int offset, int length)
+                {
+                    // we hand out the real pages
+                    child.putPage(address, bytes);
+                    sharedPages.add(bytes);
+                    child.sharedPages.add(bytes);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // everything in here is shared now
+        storeTlb.flush();
+        return child;
+    }
+
+    @Override
+    public byte loadByte(int address)
+    {
+        return loadTlb.lookUp(address)[getPageOffset(address)];
+    }
+
+    @Override
+    public void storeByte(int address, byte value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 1);
+        storeTlb.lookUp(address)[getPageOffset(address)] = value;
+    }
+
+    @Override
+    public short loadHalf(int address)
+    {
+        return (short)SHORT_VIEW.get(loadTlb.lookUp(address), getPageOffset(address));
+    }
+
+    @Override
+    public void storeHalf(int address, short value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 2);
+        SHORT_VIEW.set(storeTlb.lookUp(address), getPageOffset(address), value);
+    }
+
+    @Override
+    public int loadWord(int address)
+    {
+        return (int)INT_VIEW.get(loadTlb.lookUp(address), getPageOffset(address));
+    }
+
+    @Override
+    public int fetchWord(int address)
+    {
+        return (int)INT_VIEW.get(fetchTlb.lookUp(address), getPageOffset(address));
+    }
+
+    @Override
+    public void storeWord(int address, int value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 4);
+        INT_VIEW.set(storeTlb.lookUp(address), getPageOffset(address), value);
+    }
+
+    @Override
+    public long loadDword(int address)
+    {
+        return (long)LONG_VIEW.get(loadTlb.lookUp(address), getPageOffset(address));
+    }
+
+    @Override
+    public void storeDword(int address, long value)
+    {
+        if (decodeCache != null)
+            decodeCache.invalidate(address, 8);
+        LONG_VIEW.set(storeTlb.lookUp(address), getPageOffset(address), value);
+    }
+
+    @Override
+    public String getStatistics()
+    {
+        return fetchTlb + "\n" + loadTlb + "\n" + storeTlb;
+    }
+
+    /**
+     * a small direct-mapped cache of page index to page, in front of {@link #getPage(int)}.
+     * pages only get replaced by copy on write, which tells the TLBs to forget them.
+     * the store TLB only ever holds pages that are safe to write.
+     */
+    public class Tlb
+    {
+        private static final int SIZE_EXPONENT = 6;
+        private static final int SIZE = 1 << SIZE_EXPONENT;
+
+        private final String name;
+        private final boolean forStores;
+        // -1 never matches a page index, since page indexes come from an unsigned shift
+        private final int[] pageIndexes = new int[SIZE];
+        private final byte[][] pages = new byte[SIZE][];
+        private long hits = 0;
+        private long misses = 0;
+
+        private Tlb(String name, boolean forStores)
+        {
+            this.name = name;
+            this.forStores = forStores;
+            Arrays.fill(pageIndexes, -1);
+        }
+
+        public byte[] lookUp(int address)
+        {
+            int pageIndex = address >>> pageSizeExponent;
+            int slot = pageIndex & (SIZE - 1);
+            if (pageIndexes[slot] == pageIndex) {
+                hits++;
+                return pages[slot];
+            }
+            misses++;
+            byte[] page = forStores ? getWritablePage(address) : getPage(address);
+            pageIndexes[slot] = pageIndex;
+            pages[slot] = page;
+            return page;
+        }
+
+        private void forget(int address)
+        {
+            int pageIndex = address >>> pageSizeExponent;
+            int slot = pageIndex & (SIZE - 1);
+            if (pageIndexes[slot] == pageIndex) {
+                pageIndexes[slot] = -1;
+                pages[slot] = null;
+            }
+        }
+        private void flush()
+        {
+            Arrays.fill(pageIndexes, -1);
+            Arrays.fill(pages, null);
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+        public long getMisses()
+        {
+            return misses;
+        }
+
+        @Override
+        public String toString()
+        {
+            long total = hits + misses;
+            String hitRate = total == 0 ? "-" : String.format("%.2f%%", 100.0 * hits / total);
+            return name + " TLB: " + hits + " hits, " + misses + " misses, " + hitRate + " hit rate";
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/**
+ * timing for the classic IF/ID/EX/MEM/WB pipeline with full forwarding and no delay slots.
+ * each instruction costs one cycle plus whatever stalls it causes:
+ * <ul>
+ * <li>using a loaded register right after the load waits a cycle</li>
+ * <li>branches are predicted not taken and resolve in EX, so a taken one throws away 2 instructions</li>
+ * <li>j and jal resolve in ID and throw away 1. jr and jalr need a register, so they're like taken branches.</li>
+ * <li>mult and div run off to the side for a while, and mfhi and mflo wait for them</li>
+ * <li>syscalls, breaks, and interrupts flush the pipeline</li>
+ * <li>cache misses, if there's a {@link CacheHierarchy}</li>
+ * </ul>
+ */
+public class Pipeline
+{
+    private static final int FILL_CYCLES = 4;
+    private static final int BRANCH_PENALTY = 2;
+    private static final int JUMP_PENALTY = 1;
+    private static final int TRAP_PENALTY = 4;
+    private static final int MULT_LATENCY = 12;
+    private static final int DIV_LATENCY = 35;
+
+    private final CacheHierarchy caches;
+    private long cacheStallsSeen = 0;
+    /** the register the previous instruction loaded, or 0 */
+    private int loadDestination = 0;
+    private long cycles = 0;
+    private long hiLoReadyCycle = 0;
+
+    public long instructions = 0;
+    public long fillStalls = 0;
+    public long loadUseStalls = 0;
+    public long branchStalls = 0;
+    public long jumpStalls = 0;
+    public long hiLoStalls = 0;
+    public long trapStalls = 0;
+    public long memoryStalls = 0;
+
+    /** caches can be null */
+    public Pipeline(CacheHierarchy caches)
+    {
+        this.caches = caches;
+    }
+
+    /** returns how many cycles the instruction that just finished took. nextPc says whether it jumped. */
+    int cycles(DecodedInstr decodedInstr, int fallThroughPc, int nextPc)
+    {
+        MipsInstr instr = decodedInstr.instr;
+        int start = (int)cycles;
+        if (instructions++ == 0) {
+            cycles += FILL_CYCLES;
+            fillStalls += FILL_CYCLES;
+        }
+        cycles++;
+
+        if (loadDestination != 0 && readsRegister(decodedInstr, loadDestination)) {
+            cycles++;
+            loadUseStalls++;
+        }
+        loadDestination = 0;
+
+        switch (instr) {
+            case BEQ:
+            case BNE:
+                if (nextPc != fallThroughPc) {
+                    cycles += BRANCH_PENALTY;
+                    branchStalls += BRANCH_PENALTY;
+                }
+                break;
+            case J:
+            case JAL:
+                cycles += JUMP_PENALTY;
+                jumpStalls += JUMP_PENALTY;
+                break;
+            case JR:
+            case JALR:
+                cycles += BRANCH_PENALTY;
+                branchStalls += BRANCH_PENALTY;
+                break;
+            case LB:
+            case LH:
+            case LW:
+                loadDestination = decodedInstr.rt;
+                break;
+            case MULT:
+            case DIV:
+                // one at a time
+                waitForHiLo();
+                hiLoReadyCycle = cycles + (instr == MipsInstr.MULT ? MULT_LATENCY : DIV_LATENCY);
+                break;
+            case MFHI:
+            case MFLO:
+                waitForHiLo();
+                break;
+            case SYSCALL:
+            case BREAK:
+                trap();
+                break;
+            default:
+                break;
+        }
+
+        if (caches != null) {
+            long stalls = caches.stallCycles - cacheStallsSeen;
+            cacheStallsSeen = caches.stallCycles;
+            cycles += stalls;
+            memoryStalls += stalls;
+        }
+        return (int)cycles - start;
+    }
+    private void waitForHiLo()
+    {
+        if (cycles < hiLoReadyCycle) {
+            hiLoStalls += hiLoReadyCycle - cycles;
+            cycles = hiLoReadyCycle;
+        }
+    }
+    /** returns the flush penalty */
+    int trap()
+    {
+        cycles += TRAP_PENALTY;
+        trapStalls += TRAP_PENALTY;
+        loadDestination = 0;
+        return TRAP_PENALTY;
+    }
+
+    /** stores only need their data in MEM, where it can be forwarded in time */
+    private static boolean readsRegister(DecodedInstr decodedInstr, int register)
+    {
+        int rs = decodedInstr.rs;
+        int rt = decodedInstr.rt;
+        switch (decodedInstr.instr) {
+            case ADD:
+            case AND:
+            case NOR:
+            case OR:
+            case SLT:
+            case SUB:
+            case XOR:
+            case SLLV:
+            case SRAV:
+            case SRLV:
+            case BEQ:
+            case BNE:
+            case MULT:
+            case DIV:
+                return rs == register || rt == register;
+            case SLL:
+            case SRA:
+            case SRL:
+            case MTC0:
+                return rt == register;
+            case ADDI:
+            case ANDI:
+            case ORI:
+            case XORI:
+            case SLTI:
+            case LB:
+            case LH:
+            case LW:
+            case SB:
+            case SH:
+            case SW:
+            case JR:
+            case JALR:
+            case MTHI:
+            case MTLO:
+                return rs == register;
+            case SYSCALL:
+                // $v0 and the arguments
+                return register == 2 || register == 4 || register == 5;
+            default:
+                return false;
+        }
+    }
+
+    public long getCycles()
+    {
+        return cycles;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("pipeline: ").append(cycles).append(" cycles, ").append(instructions).append(" instructions");
+        if (instructions != 0)
+            builder.append(String.format(", CPI %.3f", (double)cycles / instructions));
+        builder.append('\n');
+        builder.append("stalls: fill ").append(fillStalls);
+        builder.append(", load-use ").append(loadUseStalls);
+        builder.append(", branch ").append(branchStalls);
+        builder.append(", jump ").append(jumpStalls);
+        builder.append(", hi/lo ").append(hiLoStalls);
+        builder.append(", trap ").append(trapStalls);
+        builder.append(", memory ").append(memoryStalls);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import com.wolfesoftware.mipsos.common.*;
+
+/**
+ * counts what the program does, one instruction at a time. everything is a primitive counter,
+ * and per-address counts live in 64KB pages that only exist for code that has run.
+ */
+public class Profiler
+{
+    private static final int PAGE_SIZE_EXPONENT = 16;
+    private static final int WORDS_PER_PAGE = 1 << (PAGE_SIZE_EXPONENT - 2);
+    private static final MipsInstr[] INSTRS = MipsInstr.values();
+    /** anything past the spim codes gets lumped into the last one */
+    public static final int SYSCALL_CODES = 18;
+
+    /** indexed by {@link MipsInstr#ordinal()} */
+    public final long[] instructionCounts = new long[INSTRS.length];
+    /** times each instruction went somewhere other than the next instruction. indexed like {@link #instructionCounts}. */
+    public final long[] takenCounts = new long[INSTRS.length];
+    public final long[] syscallCounts = new long[SYSCALL_CODES];
+    public long loads = 0;
+    public long stores = 0;
+    private final long[][] pcPages = new long[1 << (32 - PAGE_SIZE_EXPONENT)][];
+
+    /** called after each instruction that finished */
+    void count(int address, DecodedInstr decodedInstr, int nextPc, int syscallCode)
+    {
+        MipsInstr instr = decodedInstr.instr;
+        int ordinal = instr.ordinal();
+        instructionCounts[ordinal]++;
+        if (nextPc != address + 4)
+            takenCounts[ordinal]++;
+        switch (instr) {
+            case LB:
+            case LH:
+            case LW:
+                loads++;
+                break;
+            case SB:
+            case SH:
+            case SW:
+                stores++;
+                break;
+            case SYSCALL:
+                syscallCounts[Math.min(syscallCode & 0x7FFFFFFF, SYSCALL_CODES - 1)]++;
+                break;
+            default:
+                break;
+        }
+        long[] page = pcPages[address >>> PAGE_SIZE_EXPONENT];
+        if (page == null) {
+            page = new long[WORDS_PER_PAGE];
+            pcPages[address >>> PAGE_SIZE_EXPONENT] = page;
+        }
+        page[(address >>> 2) & (WORDS_PER_PAGE - 1)]++;
+    }
+
+    public long getCount(MipsInstr instr)
+    {
+        return instructionCounts[instr.ordinal()];
+    }
+    public long getTakenCount(MipsInstr instr)
+    {
+        return takenCounts[instr.ordinal()];
+    }
+    public long getTotalCount()
+    {
+        long total = 0;
+        for (long count : instructionCounts)
+            total += count;
+        return total;
+    }
+    /** how many times the instruction at this address ran */
+    public long getPcCount(int address)
+    {
+        long[] page = pcPages[address >>> PAGE_SIZE_EXPONENT];
+        return page == null ? 0 : page[(address >>> 2) & (WORDS_PER_PAGE - 1)];
+    }
+    /** the addresses that ran the most, most first */
+    public int[] getHottestAddresses(int limit)
+    {
+        // keep the best so far sorted, hottest first
+        int[] addresses = new int[limit];
+        long[] counts = new long[limit];
+        int size = 0;
+        for (int pageIndex = 0; pageIndex < pcPages.length; pageIndex++) {
+            long[] page = pcPages[pageIndex];
+            if (page == null)
+                continue;
+            for (int i = 0; i < WORDS_PER_PAGE; i++) {
+                long count = page[i];
+                if (count == 0 || (size == limit && count <= counts[size - 1]))
+                    continue;
+                int j = size < limit ? size++ : size - 1;
+                for (; j > 0 && counts[j - 1] < count; j--) {
+                    addresses[j] = addresses[j - 1];
+                    counts[j] = counts[j - 1];
+                }
+                addresses[j] = (pageIndex << PAGE_SIZE_EXPONENT) | (i << 2);
+                counts[j] = count;
+            }
+        }
+        return Arrays.copyOf(addresses, size);
+    }
+
+    /** debugInfo can be null, and then there are just addresses */
+    public void report(PrintStream out, DebugInfo debugInfo)
+    {
+        String[] sourceLines = debugInfo != null ? Util.readLines(debugInfo.inputPath) : null;
+        long total = getTotalCount();
+        out.println("instructions: " + total);
+
+        out.println("instruction mix:");
+        Integer[] ordinals = new Integer[INSTRS.length];
+        for (int i = 0; i < ordinals.length; i++)
+            ordinals[i] = i;
+        Arrays.sort(ordinals, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b)
+            {
+                return Long.valueOf(instructionCounts[b]).compareTo(instructionCounts[a]);
+            }
+        });
+        for (int ordinal : ordinals) {
+            if (instructionCounts[ordinal] == 0)
+                break;
+            out.println("  " + pad(INSTRS[ordinal].name(), 8) + count(instructionCounts[ordinal], total));
+        }
+
+        out.println("loads: " + count(loads, total));
+        out.println("stores: " + count(stores, total));
+
+        out.println("branches taken:");
+        for (MipsInstr instr : new MipsInstr[] { MipsInstr.BEQ, MipsInstr.BNE }) {
+            long count = getCount(instr);
+            if (count != 0)
+                out.println("  " + pad(instr.name(), 8) + count(getTakenCount(instr), count));
+        }
+
+        out.println("syscalls:");
+        for (int code = 0; code < SYSCALL_CODES; code++)
+            if (syscallCounts[code] != 0)
+                out.println("  " + pad(code == SYSCALL_CODES - 1 ? code + "+" : String.valueOf(code), 8) + syscallCounts[code]);
+
+        out.println("hottest instructions:");
+        for (int address : getHottestAddresses(20)) {
+            String where = "[" + Util.addressToString(address) + "]";
+            if (debugInfo != null) {
+                try {
+                    int lineNumber = debugInfo.addressToLine(address);
+                    where = lineNumber + " " + where + "  " + sourceLines[lineNumber].trim();
+                } catch (IllegalArgumentException e) {
+                    // not from the source
+                }
+            }
+            out.println("  " + pad(count(getPcCount(address), total), 24) + where);
+        }
+    }
+    private static String count(long count, long total)
+    {
+        String percent = total == 0 ? "" : String.format(" (%.2f%%)", 100.0 * count / total);
+        return count + percent;
+    }
+    private static String pad(String string, int length)
+    {
+        StringBuilder builder = new StringBuilder(string);
+        while (builder.length() < length)
+            builder.append(' ');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.PrintStream;
+import java.util.*;
+
+import com.wolfesoftware.mipsos.common.DebugInfo;
+
+/**
+ * looks at the pc every so often instead of counting everything. keeps a shadow call stack from jal/jalr and jr $ra
+ * so each sample knows how it got there. the report is collapsed-stack text, one "frame;frame;frame count" per line,
+ * which is what flame graph tools eat.
+ * in block modes, samples land on block boundaries.
+ */
+public class Sampler
+{
+    public final int interval;
+    private int rootAddress = 0;
+    // the shadow stack. callers push where they're going and where they'll come back to.
+    private int[] targets = new int[0x40];
+    private int[] returnAddresses = new int[0x40];
+    private int depth = 0;
+    // samples by stack. the last element of each key is the pc.
+    private final HashMap<StackKey, long[]> samples = new HashMap<StackKey, long[]>();
+    private long sampleCount = 0;
+
+    public Sampler(int interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("sample interval must be positive");
+        this.interval = interval;
+    }
+
+    /** starts over with an empty stack at the entry point */
+    void reset(int entryPoint)
+    {
+        rootAddress = entryPoint;
+        depth = 0;
+    }
+    void call(int target, int returnAddress)
+    {
+        if (depth == targets.length) {
+            targets = Arrays.copyOf(targets, depth * 2);
+            returnAddresses = Arrays.copyOf(returnAddresses, depth * 2);
+        }
+        targets[depth] = target;
+        returnAddresses[depth] = returnAddress;
+        depth++;
+    }
+    void returnTo(int address)
+    {
+        // usually the top frame. if something skipped a return, unwind to the frame that matches.
+        for (int i = depth - 1; i >= 0; i--) {
+            if (returnAddresses[i] == address) {
+                depth = i;
+                return;
+            }
+        }
+        // returning somewhere we never called from. leave the stack alone.
+    }
+    void sample(int pc)
+    {
+        int[] frames = Arrays.copyOf(targets, depth + 1);
+        frames[depth] = pc;
+        StackKey key = new StackKey(frames);
+        long[] count = samples.get(key);
+        if (count == null) {
+            count = new long[1];
+            samples.put(key, count);
+        }
+        count[0]++;
+        sampleCount++;
+    }
+
+    public long getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /** debugInfo can be null, and then frames are just addresses */
+    public void report(PrintStream out, DebugInfo debugInfo)
+    {
+        Names names = new Names(debugInfo);
+        // different addresses in the same line come out the same, so add those up. sorted so the output is stable.
+        TreeMap<String, Long> lines = new TreeMap<String, Long>();
+        for (Map.Entry<StackKey, long[]> entry : samples.entrySet()) {
+            int[] frames = entry.getKey().frames;
+            String function = names.function(rootAddress);
+            StringBuilder builder = new StringBuilder(function);
+            for (int i = 0; i < frames.length - 1; i++) {
+                function = names.function(frames[i]);
+                builder.append(';').append(function);
+            }
+            builder.append(';').append(function).append(':').append(names.line(frames[frames.length - 1]));
+            String line = builder.toString();
+            Long previous = lines.get(line);
+            lines.put(line, (previous != null ? previous : 0) + entry.getValue()[0]);
+        }
+        for (Map.Entry<String, Long> entry : lines.entrySet())
+            out.println(entry.getKey() + " " + entry.getValue());
+    }
+
+    private static class StackKey
+    {
+        public final int[] frames;
+        private final int hashCode;
+        public StackKey(int[] frames)
+        {
+            this.frames = frames;
+            hashCode = Arrays.hashCode(frames);
+        }
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof StackKey && Arrays.equals(frames, ((StackKey)obj).frames);
+        }
+    }
+
+    /** turns addresses into labels and line numbers */
+    private static class Names
+    {
+        private final DebugInfo debugInfo;
+        private final TreeMap<Integer, String> labels = new TreeMap<Integer, String>();
+        public Names(DebugInfo debugInfo)
+        {
+            this.debugInfo = debugInfo;
+            if (debugInfo == null)
+                return;
+            for (Map.Entry<String, Long> entry : debugInfo.labels.entrySet()) {
+                int address = (int)(long)entry.getValue();
+                String name = entry.getKey();
+                // several labels on one spot are usually a function and its first local label
+                String other = labels.get(address);
+                if (other == null || name.length() < other.length())
+                    labels.put(address, name);
+            }
+        }
+        public String function(int address)
+        {
+            Map.Entry<Integer, String> entry = labels.floorEntry(address);
+            if (entry == null)
+                return hex(address);
+            if (entry.getKey() == address)
+                return entry.getValue();
+            return entry.getValue() + "+" + hex(address - entry.getKey());
+        }
+        public String line(int address)
+        {
+            if (debugInfo != null) {
+                try {
+                    return String.valueOf(debugInfo.addressToLine(address));
+                } catch (IllegalArgumentException e) {
+                }
+            }
+            return hex(address);
+        }
+        private static String hex(int value)
+        {
+            return "0x" + Integer.toHexString(value);
+        }
+    }
+}
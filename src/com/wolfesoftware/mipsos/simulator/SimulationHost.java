@@ -0,0 +1,58 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.util.concurrent.*;
+
+import com.wolfesoftware.mipsos.common.ExecutableBinary;
+
+/**
+ * runs lots of simulations on a few threads. each one gets a time slice of instructions and then goes to the back of
+ * the line, and a simulation waiting for input doesn't hold a thread at all.
+ */
+public class SimulationHost
+{
+    public static final long DEFAULT_SLICE = 100000;
+
+    private final ExecutorService pool;
+    final long slice;
+
+    public SimulationHost(int threads, long slice)
+    {
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "simulation host");
+                // don't keep the process alive for abandoned simulations
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.slice = slice;
+    }
+    public SimulationHost()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_SLICE);
+    }
+
+    /**
+     * loads the binary and starts running it.
+     * @param budget total instructions before it gets stopped. 0 means no limit.
+     */
+    public HostedSimulation start(ExecutableBinary binary, SimulatorOptions options, long budget)
+    {
+        HostedSimulation simulation = new HostedSimulation(this, options, budget);
+        simulation.simulator.loadBinary(binary);
+        schedule(simulation);
+        return simulation;
+    }
+
+    void schedule(HostedSimulation simulation)
+    {
+        pool.execute(simulation);
+    }
+
+    /** running simulations finish their current slice and then stop for good */
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
@@ -1,7 +1,9 @@
 package com.wolfesoftware.mipsos.simulator;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.zip.*;
 
 import com.wolfesoftware.mipsos.assembler.*;
 import com.wolfesoftware.mipsos.common.*;
@@ -25,11 +27,64 @@ public class Simulator
         ExecutableBinary binary = Assembler.assembleToBinary(inputPath, simulatorOptions.assemblerOptions);
 
         // init the simulator.
-        Simulator simulator = new Simulator(simulatorOptions, ISimulatorListener.STD_ADAPTER);
-        simulator.loadBinary(binary);
+        ISimulatorListener listener = ISimulatorListener.STD_ADAPTER;
+        if (simulatorOptions.flushOnNewline != null || simulatorOptions.flushOnRead != null || simulatorOptions.stdinFile != null) {
+            InputSource in = simulatorOptions.stdinFile != null ? InputSource.fromFile(simulatorOptions.stdinFile) : InputSource.fromStdin();
+            boolean flushOnNewline = simulatorOptions.flushOnNewline != null ? simulatorOptions.flushOnNewline : System.console() != null;
+            boolean flushOnRead = simulatorOptions.flushOnRead != null ? simulatorOptions.flushOnRead : true;
+            listener = StdioListener.create(in, flushOnNewline, flushOnRead);
+        }
+        Simulator simulator = new Simulator(simulatorOptions, listener);
+        if (simulatorOptions.restoreFile != null) {
+            InputStream snapshotStream = new FileInputStream(simulatorOptions.restoreFile);
+            try {
+                simulator.restoreSnapshot(snapshotStream);
+            } finally {
+                snapshotStream.close();
+            }
+        } else {
+            simulator.loadBinary(binary);
+        }
 
         // run and don't look back
-        simulator.run();
+        try {
+            if (simulatorOptions.snapshotFile != null) {
+                long remaining = simulatorOptions.snapshotAt;
+                while (remaining > 0 && simulator.status != SimulatorStatus.Done) {
+                    long startCount = simulator.instructionCount;
+                    simulator.run(remaining);
+                    remaining -= simulator.instructionCount - startCount;
+                }
+                OutputStream snapshotStream = new FileOutputStream(simulatorOptions.snapshotFile);
+                try {
+                    simulator.saveSnapshot(snapshotStream);
+                } finally {
+                    snapshotStream.close();
+                }
+            }
+            simulator.run();
+        } finally {
+            // don't lose the output or the trace leading up to a crash
+            listener.flush();
+            if (simulator.tracer != null)
+                simulator.tracer.close();
+        }
+
+        simulator.memory.flush();
+        if (simulatorOptions.memoryStatistics)
+            System.err.println(simulator.memory.getStatistics());
+        if (simulator.profiler != null)
+            simulator.profiler.report(System.err, DebugInfo.fromBinary(binary));
+        if (simulator.pipeline != null)
+            System.err.println(simulator.pipeline);
+        if (simulator.caches != null) {
+            System.err.println(simulator.caches.getStatistics(simulator.getInstructionCount()));
+        }
+        if (simulator.sampler != null) {
+            PrintStream sampleStream = simulatorOptions.sampleFile != null ? new PrintStream(new FileOutputStream(simulatorOptions.sampleFile)) : System.err;
+            simulator.sampler.report(sampleStream, DebugInfo.fromBinary(binary));
+            sampleStream.flush();
+        }
     }
 
     // registers
@@ -38,21 +93,96 @@ public class Simulator
     private int hi = 0;
     private int lo = 0;
     private int clock = 0;
+    /** unlike the clock, this only ever goes up by one per instruction */
+    private long instructionCount = 0;
     private int interruptHandler = 0;
     private int nextTimerInterrupt = -1;
     private int epc = 0;
+    /** whether the last instruction ended with a jump to the interrupt handler */
+    private boolean interruptTaken = false;
 
     private Memory memory;
+    private DecodeCache decodeCache;
+    private BlockCompiler blockCompiler = null;
+    private CacheHierarchy caches = null;
+    private Pipeline pipeline = null;
+    private Profiler profiler = null;
+    private Sampler sampler = null;
+    private int nextSample = 0;
+    private Tracer tracer = null;
+    /** scratch space for moving strings in and out of memory in syscalls */
+    private final byte[] stringBuffer = new byte[0x100];
+    /** what the current syscall has read so far, in case it has to be retried */
+    private char[] inputLog = new char[0x100];
+    private int inputLogLength = 0;
+    private int inputLogPosition = 0;
 
     private SimulatorStatus status = SimulatorStatus.Ready;
+    private final BreakpointMap breakpoints = new BreakpointMap();
+    private volatile boolean pauseRequested = false;
     public ISimulatorListener listener = null;
     private SimulatorOptions options;
 
     public Simulator(SimulatorOptions options, ISimulatorListener listener)
+    {
+        this(options, listener, Memory.create(options));
+        if (options.traceFile != null) {
+            // not in the other constructor, so forks don't write over the same file
+            tracer = new Tracer(options.traceFile);
+            memory = new TracedMemory(memory, tracer);
+        }
+    }
+    private Simulator(SimulatorOptions options, ISimulatorListener listener, Memory memory)
     {
         this.options = options;
         this.listener = listener;
-        memory = new Memory(options.pageSizeExponent);
+        if (options.cacheModel) {
+            caches = new CacheHierarchy(options);
+            memory = new CachedMemory(memory, caches);
+        }
+        this.memory = memory;
+        if (options.pipeline)
+            pipeline = new Pipeline(caches);
+        decodeCache = new DecodeCache(memory, breakpoints);
+        if (options.jit)
+            blockCompiler = new BlockCompiler();
+        if (options.profile)
+            profiler = new Profiler();
+        if (options.sampleInterval != 0) {
+            sampler = new Sampler(options.sampleInterval);
+            nextSample = options.sampleInterval;
+        }
+    }
+
+    /**
+     * makes a copy of the whole machine that goes its own way from here. memory pages are shared until one side writes
+     * to them. the child starts with no breakpoints, cold caches, and fresh profiling, and talks to its own listener.
+     * the child isn't traced.
+     */
+    public Simulator fork(ISimulatorListener listener)
+    {
+        Memory realMemory = memory;
+        if (tracer != null)
+            realMemory = ((TracedMemory)realMemory).getMemory();
+        if (caches != null)
+            realMemory = ((CachedMemory)realMemory).getMemory();
+        Simulator child = new Simulator(options, listener, realMemory.fork());
+        System.arraycopy(registers, 0, child.registers, 0, registers.length);
+        child.pc = pc;
+        child.hi = hi;
+        child.lo = lo;
+        child.clock = clock;
+        child.instructionCount = instructionCount;
+        child.interruptHandler = interruptHandler;
+        child.nextTimerInterrupt = nextTimerInterrupt;
+        child.epc = epc;
+        child.status = status;
+        child.inputLog = inputLog.clone();
+        child.inputLogLength = inputLogLength;
+        child.inputLogPosition = inputLogPosition;
+        if (child.sampler != null)
+            child.sampler.reset(pc);
+        return child;
     }
 
     public void loadBinary(ExecutableBinary binary)
@@ -69,6 +199,8 @@ public class Simulator
                 pc = address;
             }
         }
+        if (sampler != null)
+            sampler.reset(pc);
     }
     public int getPc()
     {
@@ -82,10 +214,35 @@ public class Simulator
     {
         return clock;
     }
+    /** counts from when this simulator was created or restored from a snapshot. forks carry it on. */
+    public long getInstructionCount()
+    {
+        return instructionCount;
+    }
     public int[] getRegisters()
     {
         return registers.clone();
     }
+    /** null unless the cache model is turned on */
+    public CacheHierarchy getCaches()
+    {
+        return caches;
+    }
+    /** null unless the pipeline timing model is turned on */
+    public Pipeline getPipeline()
+    {
+        return pipeline;
+    }
+    /** null unless profiling is turned on */
+    public Profiler getProfiler()
+    {
+        return profiler;
+    }
+    /** null unless sampling is turned on */
+    public Sampler getSampler()
+    {
+        return sampler;
+    }
     public Extras getExtras()
     {
         return new Extras(hi, lo, interruptHandler, nextTimerInterrupt, epc);
@@ -94,56 +251,254 @@ public class Simulator
     {
         return memory.getMemory(address, length);
     }
+    /** fills the rest of the buffer */
+    public void getMemory(int address, ByteBuffer buffer)
+    {
+        memory.loadBytes(address, buffer);
+    }
 
     public void run()
     {
-        while (status != SimulatorStatus.Done)
-            internalStep();
+        if (usesBlocks()) {
+            while (status != SimulatorStatus.Done)
+                blockStep();
+        } else {
+            while (status != SimulatorStatus.Done)
+                internalStep();
+        }
+    }
+    /**
+     * runs until the program exits, needs input that isn't there yet, hits a break or a breakpoint, gets paused,
+     * or has run maxInstructions. always runs at least one instruction, so running from a breakpoint gets past it.
+     * block modes can go over the budget by the rest of a block.
+     */
+    public StopReason run(long maxInstructions)
+    {
+        boolean blocks = usesBlocks();
+        // not the clock, which counts cycles with --pipeline and can be written by the program
+        long startCount = instructionCount;
+        try {
+            while (true) {
+                if (breakpoints.changed) {
+                    // blocks translated before might run right past a new breakpoint
+                    breakpoints.changed = false;
+                    decodeCache.flushBlocks();
+                }
+                if (blocks)
+                    blockStep();
+                else
+                    internalStep();
+                switch (status) {
+                    case Done:
+                        return StopReason.Done;
+                    case Stdin:
+                        return StopReason.Stdin;
+                    case Break:
+                        return StopReason.Break;
+                    default:
+                        break;
+                }
+                if (breakpoints.contains(pc))
+                    return StopReason.Breakpoint;
+                if (pauseRequested)
+                    return StopReason.Paused;
+                if (instructionCount - startCount >= maxInstructions)
+                    return StopReason.Budget;
+            }
+        } finally {
+            pauseRequested = false;
+        }
+    }
+    /** makes {@link #run(long)} return soon. can be called from any thread. */
+    public void pause()
+    {
+        pauseRequested = true;
+    }
+    /** forgets a {@link #pause()} that came in when nothing was running, so it doesn't stop the next run */
+    public void clearPause()
+    {
+        pauseRequested = false;
+    }
+
+    /** these can be changed from any thread, even while running */
+    public void addBreakpoint(int address)
+    {
+        breakpoints.add(address);
+    }
+    /** returns whether there was one */
+    public boolean removeBreakpoint(int address)
+    {
+        return breakpoints.remove(address);
+    }
+    public void clearBreakpoints()
+    {
+        breakpoints.clear();
+    }
+    /** sorted by address */
+    public List<Integer> getBreakpoints()
+    {
+        return breakpoints.toList();
     }
+
     public SimulatorStatus step()
     {
+        // pausing is only for run(long). a step is over soon enough anyway.
+        pauseRequested = false;
         internalStep();
         return status;
     }
 
+    /** the profiler, the instruction cache, the pipeline, and the tracer need to see every instruction */
+    private boolean usesBlocks()
+    {
+        return (options.blockTranslation || options.jit) && profiler == null && caches == null && pipeline == null && tracer == null;
+    }
+
     private void internalStep()
     {
+        if (profiler != null) {
+            profiledStep();
+            return;
+        }
         // fetch
-        int instruction = memory.loadWord(pc);
+        if (caches != null)
+            caches.fetch(pc);
+        finishStep(decodeCache.get(pc));
+    }
+    private void profiledStep()
+    {
+        int address = pc;
+        if (caches != null)
+            caches.fetch(address);
+        DecodedInstr decodedInstr = decodeCache.get(address);
+        // the syscall might clobber $v0
+        int syscallCode = registers[2];
+        long startCount = instructionCount;
+        finishStep(decodedInstr);
+        if (instructionCount == startCount)
+            return; // backed out to wait for input. it'll be back.
+        // don't count an interrupt as a taken branch
+        int nextPc = interruptTaken ? epc : pc;
+        profiler.count(address, decodedInstr, nextPc, syscallCode);
+    }
+
+    /**
+     * runs a whole basic block in one go. the clock and pc only get caught up before the block's last instruction,
+     * which is the only one that can look at them.
+     */
+    private void blockStep()
+    {
+        BasicBlock block = decodeCache.getBlock(pc);
+        DecodedInstr[] instrs = block.instrs;
+        int bodyLength = instrs.length - 1;
+        int untilInterrupt = nextTimerInterrupt - clock;
+        if (0 < untilInterrupt && untilInterrupt <= bodyLength) {
+            // the timer goes off in the middle of this block
+            internalStep();
+            return;
+        }
+        status = SimulatorStatus.Ready;
+        int invalidationCount = decodeCache.getInvalidationCount();
+        int i = 0;
+        if (block.compiled != null) {
+            i = block.compiled.execute(registers, memory, decodeCache);
+            if (decodeCache.getInvalidationCount() != invalidationCount) {
+                pc = block.address + 4 * i;
+                clock += i;
+                instructionCount += i;
+                return;
+            }
+        } else if (blockCompiler != null && ++block.entryCount == BlockCompiler.HOT_THRESHOLD) {
+            block.compiled = blockCompiler.compile(block);
+        }
+        for (; i < bodyLength; i++) {
+            executeInstruction(instrs[i]);
+            registers[0] = 0;
+            if (decodeCache.getInvalidationCount() != invalidationCount) {
+                // something stored over code. the rest of this block might not be what we decoded.
+                pc = block.address + 4 * (i + 1);
+                clock += i + 1;
+                instructionCount += i + 1;
+                return;
+            }
+        }
+        pc = block.address + 4 * bodyLength;
+        clock += bodyLength;
+        instructionCount += bodyLength;
+        finishStep(instrs[bodyLength]);
+    }
+
+    private void finishStep(DecodedInstr decodedInstr)
+    {
+        if (tracer != null)
+            tracer.begin(pc, registers, hi, lo);
         pc += 4;
+        int fallThroughPc = pc;
+        interruptTaken = false;
         // execute
         status = SimulatorStatus.Ready; // assume success
-        executeInstruction(instruction);
+        try {
+            executeInstruction(decodedInstr);
+        } catch (InputNotReadyException e) {
+            // back out of the syscall and try it again later
+            pc -= 4;
+            inputLogPosition = 0;
+            status = SimulatorStatus.Stdin;
+            if (tracer != null)
+                tracer.cancel();
+            return;
+        }
         // fix the zero register
         registers[0] = 0;
+        instructionCount++;
+        if (tracer != null)
+            tracer.end(registers, hi, lo);
         // bump the clock and check for timer interrupts
-        clock++;
-        if (clock == nextTimerInterrupt) {
+        if (pipeline != null) {
+            pipelineTick(decodedInstr, fallThroughPc);
+        } else {
+            clock++;
+            if (clock == nextTimerInterrupt) {
+                // interrupt
+                epc = pc;
+                pc = interruptHandler;
+                interruptTaken = true;
+            }
+        }
+        if (sampler != null && clock - nextSample >= 0) {
+            sampler.sample(pc);
+            nextSample = clock + sampler.interval;
+        }
+    }
+
+    /** the clock moves by however many cycles the instruction took, so the interrupt can go off on the way past */
+    private void pipelineTick(DecodedInstr decodedInstr, int fallThroughPc)
+    {
+        int untilInterrupt = nextTimerInterrupt - clock;
+        int elapsed = pipeline.cycles(decodedInstr, fallThroughPc, pc);
+        clock += elapsed;
+        if (0 < untilInterrupt && untilInterrupt <= elapsed) {
             // interrupt
             epc = pc;
             pc = interruptHandler;
+            clock += pipeline.trap();
+            interruptTaken = true;
         }
     }
 
     /** has a big switch in it */
-    private void executeInstruction(int instruction)
-    {
-        // get all possible fields
-        int opcode = instruction >>> 26;
-        int rs = instruction >> 21 & 0x1F;
-        int rt = instruction >> 16 & 0x1F;
-        int rd = instruction >> 11 & 0x1F;
-        int shamt = instruction >> 6 & 0x1F;
-        int funct = instruction & 0x3F;
-        int zeroExtImm = instruction & 0xFFFF;
-        int signExtImm = ((zeroExtImm & 0x8000) == 0 ? zeroExtImm : zeroExtImm - 0x10000);
-        int target = instruction & 0x02FFFFFF;
-        int targetAddress = (pc & 0xF0000000) | (target << 2);
-
-        // get instruction from opcode and maybe funct
-        MipsInstr instr = MipsInstr.fromOpcodeRsFunct(opcode, rs, funct);
+    private void executeInstruction(DecodedInstr decodedInstr)
+    {
+        int rs = decodedInstr.rs;
+        int rt = decodedInstr.rt;
+        int rd = decodedInstr.rd;
+        int shamt = decodedInstr.shamt;
+        int zeroExtImm = decodedInstr.zeroExtImm;
+        int signExtImm = decodedInstr.signExtImm;
+        int targetAddress = decodedInstr.targetAddress;
+
         // execute
-        switch (instr) {
+        switch (decodedInstr.instr) {
             case ADD:
                 registers[rd] = registers[rs] + registers[rt];
                 break;
@@ -176,14 +531,20 @@ public class Simulator
                 break;
             case JAL:
                 registers[31] = pc;
+                if (sampler != null)
+                    sampler.call(targetAddress, pc);
                 pc = targetAddress;
                 break;
             case JALR:
                 registers[rd] = pc;
+                if (sampler != null)
+                    sampler.call(registers[rs], pc);
                 pc = registers[rs];
                 break;
             case JR:
                 pc = registers[rs];
+                if (sampler != null && rs == 31)
+                    sampler.returnTo(pc);
                 break;
             case LB:
                 registers[rt] = memory.loadByte(signExtImm + registers[rs]);
@@ -331,10 +692,12 @@ public class Simulator
         int syscallCode = registers[2];
         switch (syscallCode) {
             case 1: // print_int  $a0 = integer
+            {
                 checkFancyIoSupport();
-                for (char c : Integer.toString(registers[4]).toCharArray())
-                    listener.printCharacter(c);
+                int start = formatInt(registers[4], stringBuffer);
+                listener.printBytes(stringBuffer, start, stringBuffer.length - start);
                 break;
+            }
             case 2: // print_float   $f12 = float
             case 3: // print_double   $f12 = double
                 throw new RuntimeException("floating point operations are not supported");
@@ -342,49 +705,76 @@ public class Simulator
             {
                 checkFancyIoSupport();
                 int cursor = registers[4];
+                int chunkSize = Math.min(stringBuffer.length, memory.getPageSize());
                 while (true) {
-                    byte c = memory.loadByte(cursor);
-                    if (c == 0)
+                    // don't read past the page the string ends in. reading a page can make it.
+                    int length = chunkSize - (cursor & (chunkSize - 1));
+                    memory.loadBytes(cursor, stringBuffer, 0, length);
+                    int end = 0;
+                    while (end < length && stringBuffer[end] != 0)
+                        end++;
+                    if (end != 0)
+                        listener.printBytes(stringBuffer, 0, end);
+                    if (end < length)
                         break;
-                    listener.printCharacter((char)c);
-                    cursor++;
+                    cursor += length;
                 }
                 break;
             }
-            case 5: // read_int   integer (in $v0)
+            case 5: // read_int   integer (in $v0), -1 (in $v1) at the end of input
             {
                 checkFancyIoSupport();
                 StringBuilder builder = new StringBuilder();
+                boolean endOfInput = false;
                 while (true) {
                     char c = readCharacter();
+                    if (c == ISimulatorListener.END_OF_INPUT) {
+                        endOfInput = true;
+                        break;
+                    }
                     if (c == '\n')
                         break;
                     builder.append(c);
                 }
-                registers[2] = Integer.parseInt(builder.toString().trim());
+                String digits = builder.toString().trim();
+                // a last line without a newline still counts
+                registers[2] = endOfInput && digits.isEmpty() ? 0 : Integer.parseInt(digits);
+                registers[3] = endOfInput ? -1 : 0;
                 break;
             }
             case 6: // read_float   float (in $f0)
             case 7: // read_double   double (in $f0)
                 throw new RuntimeException("floating point operations are not supported");
-            case 8: // read_string   $a0 = buffer, $a1 = length  
+            case 8: // read_string   $a0 = buffer, $a1 = length   -1 (in $v1) at the end of input
             {
                 checkFancyIoSupport();
                 int cursor = registers[4];
                 int maxLenght = registers[5];
+                int length = 0;
+                registers[3] = 0;
                 for (int i = 0; i < maxLenght; i++) {
                     char c = readCharacter();
-                    memory.storeByte(cursor, (byte)c);
+                    if (c == ISimulatorListener.END_OF_INPUT) {
+                        registers[3] = -1;
+                        break;
+                    }
+                    stringBuffer[length++] = (byte)c;
+                    if (length == stringBuffer.length) {
+                        memory.storeBytes(stringBuffer, 0, length, cursor);
+                        cursor += length;
+                        length = 0;
+                    }
                     if (c == '\n')
                         break;
-                    cursor++;
                 }
+                memory.storeBytes(stringBuffer, 0, length, cursor);
                 break;
             }
             case 9: // sbrk   $a0 = amount    address (in $v0)
                 throw new RuntimeException("sbrk is not supported");
             case 10: // exit
                 status = SimulatorStatus.Done;
+                listener.flush();
                 break;
             case 11: // print_character   $a0 = character
                 listener.printCharacter((char)registers[4]);
@@ -402,16 +792,141 @@ public class Simulator
             default:
                 throw new RuntimeException("illegal syscall code");
         }
+        inputLogLength = 0;
+        inputLogPosition = 0;
+    }
+
+    private static final int SNAPSHOT_MAGIC_NUMBER = 0x736e6170;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * writes out registers, cop0 state, and every page of memory that isn't all zeros, compressed.
+     * only the machine is saved. the listener, breakpoints, and any profiling are not.
+     */
+    public void saveSnapshot(OutputStream outStream) throws IOException
+    {
+        // the stream would make its own deflater and never end it, which holds native memory until finalization
+        Deflater deflater = new Deflater();
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(outStream, deflater);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(deflaterStream));
+            out.writeInt(SNAPSHOT_MAGIC_NUMBER);
+            out.writeInt(SNAPSHOT_VERSION);
+            for (int register : registers)
+                out.writeInt(register);
+            out.writeInt(pc);
+            out.writeInt(hi);
+            out.writeInt(lo);
+            out.writeInt(clock);
+            out.writeInt(interruptHandler);
+            out.writeInt(nextTimerInterrupt);
+            out.writeInt(epc);
+            out.writeInt(status.ordinal());
+            // input a backed out syscall already took
+            out.writeInt(inputLogLength);
+            for (int i = 0; i < inputLogLength; i++)
+                out.writeChar(inputLog[i]);
+
+            memory.visitPages(new Memory.PageVisitor() {
+                public void visit(int address, byte[] bytes, int offset, int length) throws IOException
+                {
+                    int end = offset + length;
+                    for (int i = offset; i < end; i++) {
+                        if (bytes[i] != 0) {
+                            out.writeInt(length);
+                            out.writeInt(address);
+                            out.write(bytes, offset, length);
+                            return;
+                        }
+                    }
+                }
+            });
+            out.writeInt(0);
+            out.flush();
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+    /** only makes sense for a simulator that hasn't loaded or run anything yet */
+    public void restoreSnapshot(InputStream inStream) throws IOException
+    {
+        // same as saving. don't close the stream though. it belongs to the caller.
+        Inflater inflater = new Inflater();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(inStream, inflater)));
+            if (in.readInt() != SNAPSHOT_MAGIC_NUMBER)
+                throw new RuntimeException("not a snapshot");
+            if (in.readInt() != SNAPSHOT_VERSION)
+                throw new RuntimeException("unsupported snapshot version");
+            for (int i = 0; i < registers.length; i++)
+                registers[i] = in.readInt();
+            pc = in.readInt();
+            hi = in.readInt();
+            lo = in.readInt();
+            clock = in.readInt();
+            instructionCount = 0;
+            interruptHandler = in.readInt();
+            nextTimerInterrupt = in.readInt();
+            epc = in.readInt();
+            status = SimulatorStatus.values()[in.readInt()];
+            inputLogLength = in.readInt();
+            inputLogPosition = 0;
+            if (inputLogLength > inputLog.length)
+                inputLog = new char[inputLogLength];
+            for (int i = 0; i < inputLogLength; i++)
+                inputLog[i] = in.readChar();
+
+            byte[] page = new byte[0];
+            while (true) {
+                int length = in.readInt();
+                if (length == 0)
+                    break;
+                int address = in.readInt();
+                if (page.length < length)
+                    page = new byte[length];
+                in.readFully(page, 0, length);
+                memory.storeBytes(page, 0, length, address);
+            }
+            if (sampler != null)
+                sampler.reset(pc);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** writes the decimal digits right-aligned in the buffer and returns the index of the first one */
+    private static int formatInt(int value, byte[] buffer)
+    {
+        int cursor = buffer.length;
+        // work with negative numbers so that MIN_VALUE doesn't overflow
+        int negative = value < 0 ? value : -value;
+        do {
+            buffer[--cursor] = (byte)('0' - negative % 10);
+            negative /= 10;
+        } while (negative != 0);
+        if (value < 0)
+            buffer[--cursor] = '-';
+        return cursor;
     }
 
     private char readCharacter()
     {
+        // replay anything from an attempt that got backed out
+        if (inputLogPosition < inputLogLength)
+            return inputLog[inputLogPosition++];
+        char c;
         status = SimulatorStatus.Stdin;
         try {
-            return listener.readCharacter();
+            c = listener.readCharacter();
         } finally {
             status = SimulatorStatus.Ready;
         }
+        if (inputLogLength == inputLog.length)
+            inputLog = Arrays.copyOf(inputLog, inputLog.length * 2);
+        inputLog[inputLogLength++] = c;
+        inputLogPosition = inputLogLength;
+        return c;
     }
 
     private void checkFancyIoSupport()
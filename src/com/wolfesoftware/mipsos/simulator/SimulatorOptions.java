@@ -7,9 +7,51 @@ import com.wolfesoftware.mipsos.common.Options;
 
 public class SimulatorOptions extends Options
 {
+    public static final String MEMORY_HASH = "hash";
+    public static final String MEMORY_TABLE = "table";
+    public static final String MEMORY_MAPPED = "mapped";
+
     public AssemblerOptions assemblerOptions;
+    public String memory = MEMORY_HASH;
+    /** backing file for {@link #MEMORY_MAPPED}. an existing file gets overwritten. null means a temporary file. */
+    public String memoryFile = null;
     public int pageSizeExponent = 6;
+    public boolean memoryStatistics = false;
+    /** count everything and print a report at exit */
+    public boolean profile = false;
+    /**
+     * makes the clock count cycles of a 5-stage pipeline instead of instructions.
+     * timer interrupts go by the clock, so they count cycles too. instruction budgets still count instructions.
+     */
+    public boolean pipeline = false;
+    /** save a snapshot after running snapshotAt instructions, then keep going */
+    public String snapshotFile = null;
+    public long snapshotAt = 0;
+    /** start from a snapshot instead of the beginning of the program */
+    public String restoreFile = null;
+    /** simulate caches and report hit rates at exit */
+    public boolean cacheModel = false;
+    /** SIZE,WAYS,LINE[,wb|wt] */
+    public String l1iCache = "16k,4,32";
+    public String l1dCache = "16k,4,32,wb";
+    /** or "none" */
+    public String l2Cache = "256k,8,64,wb";
+    /** cycles for an L1 hit, an L2 hit, and main memory */
+    public String cacheLatencies = "1,10,100";
+    /** cycles between samples. 0 means don't sample. */
+    public int sampleInterval = 0;
+    /** where the collapsed stacks go. null means stderr. */
+    public String sampleFile = null;
+    /** record every instruction to this file. see {@link Tracer}. */
+    public String traceFile = null;
+    /** null means the stdout default */
+    public Boolean flushOnNewline = null;
+    public Boolean flushOnRead = null;
+    /** null means the real stdin */
+    public String stdinFile = null;
     public boolean fancyIoSupport = false;
+    public boolean blockTranslation = false;
+    public boolean jit = false;
 
     public void parse(LinkedList<String> args, boolean forceDebug)
     {
@@ -20,7 +62,8 @@ public class SimulatorOptions extends Options
         if (Boolean.TRUE.equals(assemblerOptions.readable))
             throw new RuntimeException();
         assemblerOptions.readable = false;
-        if (forceDebug) {
+        // profile reports need line numbers
+        if (forceDebug || wantsDebugInfo(args)) {
             if (Boolean.FALSE.equals(assemblerOptions.debugInfo))
                 throw new RuntimeException();
             assemblerOptions.debugInfo = true;
@@ -33,10 +76,96 @@ public class SimulatorOptions extends Options
             if (arg.startsWith("--page=")) {
                 pageSizeExponent = Integer.parseInt(arg.substring("--page=".length()));
                 iterator.remove();
+            } else if (arg.startsWith("--memory=")) {
+                memory = arg.substring("--memory=".length());
+                iterator.remove();
+            } else if (arg.startsWith("--memory-file=")) {
+                memoryFile = arg.substring("--memory-file=".length());
+                iterator.remove();
+            } else if (arg.startsWith("--flush=")) {
+                // comma separated list of newline and read. "none" for neither.
+                flushOnNewline = false;
+                flushOnRead = false;
+                for (String trigger : arg.substring("--flush=".length()).split(",")) {
+                    if (trigger.equals("newline"))
+                        flushOnNewline = true;
+                    else if (trigger.equals("read"))
+                        flushOnRead = true;
+                    else if (!trigger.equals("none"))
+                        throw new RuntimeException("unknown flush trigger: " + trigger);
+                }
+                iterator.remove();
+            } else if (arg.startsWith("--stdin-file=")) {
+                stdinFile = arg.substring("--stdin-file=".length());
+                iterator.remove();
+            } else if (arg.startsWith("--sample=")) {
+                sampleInterval = Integer.parseInt(arg.substring("--sample=".length()));
+                iterator.remove();
+            } else if (arg.startsWith("--sample-file=")) {
+                sampleFile = arg.substring("--sample-file=".length());
+                iterator.remove();
+            } else if (arg.startsWith("--trace=")) {
+                traceFile = arg.substring("--trace=".length());
+                iterator.remove();
+            } else if (arg.startsWith("--snapshot=")) {
+                // --snapshot=FILE@INSTRUCTIONS
+                String value = arg.substring("--snapshot=".length());
+                int at = value.lastIndexOf('@');
+                if (at == -1)
+                    throw new RuntimeException("snapshot must be FILE@INSTRUCTIONS");
+                snapshotFile = value.substring(0, at);
+                snapshotAt = Long.parseLong(value.substring(at + 1));
+                iterator.remove();
+            } else if (arg.startsWith("--restore=")) {
+                restoreFile = arg.substring("--restore=".length());
+                iterator.remove();
+            } else if (arg.equals("--pipeline")) {
+                pipeline = true;
+                iterator.remove();
+            } else if (arg.equals("--cache")) {
+                cacheModel = true;
+                iterator.remove();
+            } else if (arg.startsWith("--l1i=")) {
+                l1iCache = arg.substring("--l1i=".length());
+                cacheModel = true;
+                iterator.remove();
+            } else if (arg.startsWith("--l1d=")) {
+                l1dCache = arg.substring("--l1d=".length());
+                cacheModel = true;
+                iterator.remove();
+            } else if (arg.startsWith("--l2=")) {
+                l2Cache = arg.substring("--l2=".length());
+                cacheModel = true;
+                iterator.remove();
+            } else if (arg.startsWith("--cache-latency=")) {
+                cacheLatencies = arg.substring("--cache-latency=".length());
+                cacheModel = true;
+                iterator.remove();
+            } else if (arg.equals("--profile")) {
+                profile = true;
+                iterator.remove();
+            } else if (arg.equals("--memory-stats")) {
+                memoryStatistics = true;
+                iterator.remove();
             } else if (arg.equals("--fancy")) {
                 fancyIoSupport = true;
                 iterator.remove();
+            } else if (arg.equals("--blocks")) {
+                blockTranslation = true;
+                iterator.remove();
+            } else if (arg.equals("--jit")) {
+                jit = true;
+                iterator.remove();
             }
         }
     }
+
+    /** reports that print line numbers */
+    private static boolean wantsDebugInfo(LinkedList<String> args)
+    {
+        for (String arg : args)
+            if (arg.equals("--profile") || arg.startsWith("--sample="))
+                return true;
+        return false;
+    }
 }
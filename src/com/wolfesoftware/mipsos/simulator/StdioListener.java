@@ -0,0 +1,90 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * guest stdin and stdout. output collects in a buffer and goes out in big writes straight to the channel.
+ * the buffer is always flushed when it fills up and when the program exits.
+ * flushing on newlines and before reading input is up to the caller.
+ */
+public class StdioListener implements ISimulatorListener
+{
+    private static final int BUFFER_SIZE = 0x2000;
+
+    private final InputSource in;
+    private final WritableByteChannel out;
+    private final ByteBuffer outBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final boolean flushOnNewline;
+    private final boolean flushOnRead;
+
+    public StdioListener(InputSource in, WritableByteChannel out, boolean flushOnNewline, boolean flushOnRead)
+    {
+        this.in = in;
+        this.out = out;
+        this.flushOnNewline = flushOnNewline;
+        this.flushOnRead = flushOnRead;
+    }
+
+    /** writes to the process's stdout, bypassing System.out */
+    public static StdioListener create(InputSource in, boolean flushOnNewline, boolean flushOnRead)
+    {
+        return new StdioListener(in, new FileOutputStream(FileDescriptor.out).getChannel(), flushOnNewline, flushOnRead);
+    }
+
+    @Override
+    public void printCharacter(char c)
+    {
+        if (!outBuffer.hasRemaining())
+            flush();
+        outBuffer.put((byte)c);
+        if (c == '\n' && flushOnNewline)
+            flush();
+    }
+    @Override
+    public void printBytes(byte[] bytes, int offset, int length)
+    {
+        if (length > outBuffer.remaining()) {
+            flush();
+            if (length > outBuffer.capacity()) {
+                // too big to bother buffering
+                write(ByteBuffer.wrap(bytes, offset, length));
+                return;
+            }
+        }
+        outBuffer.put(bytes, offset, length);
+        if (flushOnNewline) {
+            for (int i = offset; i < offset + length; i++) {
+                if (bytes[i] == '\n') {
+                    flush();
+                    break;
+                }
+            }
+        }
+    }
+    @Override
+    public void flush()
+    {
+        outBuffer.flip();
+        write(outBuffer);
+        outBuffer.clear();
+    }
+    private void write(ByteBuffer buffer)
+    {
+        try {
+            while (buffer.hasRemaining())
+                out.write(buffer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public char readCharacter()
+    {
+        if (flushOnRead)
+            flush();
+        return (char)in.read();
+    }
+}
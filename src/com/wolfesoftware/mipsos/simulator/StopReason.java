@@ -0,0 +1,17 @@
+package com.wolfesoftware.mipsos.simulator;
+
+/** why {@link Simulator#run(long)} came back */
+public enum StopReason {
+    /** ran the number of instructions it was asked to */
+    Budget,
+    /** executed a break instruction */
+    Break,
+    /** needs input that isn't there yet */
+    Stdin,
+    /** the program exited */
+    Done,
+    /** stopped at a breakpoint before executing it */
+    Breakpoint,
+    /** someone called {@link Simulator#pause()} */
+    Paused
+}
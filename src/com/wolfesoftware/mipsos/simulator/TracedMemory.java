@@ -0,0 +1,128 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** tells a {@link Tracer} about every store, then does it for real */
+public class TracedMemory extends Memory
+{
+    private final Memory memory;
+    private final Tracer tracer;
+
+    public TracedMemory(Memory memory, Tracer tracer)
+    {
+        this.memory = memory;
+        this.tracer = tracer;
+    }
+
+    Memory getMemory()
+    {
+        return memory;
+    }
+
+    @Override
+    void setDecodeCache(DecodeCache decodeCache)
+    {
+        super.setDecodeCache(decodeCache);
+        // the real stores happen in there
+        memory.setDecodeCache(decodeCache);
+    }
+
+    @Override
+    public void storeBytes(byte[] bytes, int offset, int length, int address)
+    {
+        tracer.store(address, bytes, offset, length);
+        memory.storeBytes(bytes, offset, length, address);
+    }
+    @Override
+    public void storeBytes(ByteBuffer buffer, int address)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        tracer.store(address, bytes, 0, bytes.length);
+        memory.storeBytes(buffer, address);
+    }
+    @Override
+    public void loadBytes(int address, byte[] bytes, int offset, int length)
+    {
+        memory.loadBytes(address, bytes, offset, length);
+    }
+    @Override
+    public void loadBytes(int address, ByteBuffer buffer)
+    {
+        memory.loadBytes(address, buffer);
+    }
+
+    @Override
+    public byte loadByte(int address)
+    {
+        return memory.loadByte(address);
+    }
+    @Override
+    public void storeByte(int address, byte value)
+    {
+        tracer.store(address, value, 1);
+        memory.storeByte(address, value);
+    }
+    @Override
+    public short loadHalf(int address)
+    {
+        return memory.loadHalf(address);
+    }
+    @Override
+    public void storeHalf(int address, short value)
+    {
+        tracer.store(address, value, 2);
+        memory.storeHalf(address, value);
+    }
+    @Override
+    public int loadWord(int address)
+    {
+        return memory.loadWord(address);
+    }
+    @Override
+    public int fetchWord(int address)
+    {
+        return memory.fetchWord(address);
+    }
+    @Override
+    public void storeWord(int address, int value)
+    {
+        tracer.store(address, value, 4);
+        memory.storeWord(address, value);
+    }
+    @Override
+    public long loadDword(int address)
+    {
+        return memory.loadDword(address);
+    }
+    @Override
+    public void storeDword(int address, long value)
+    {
+        tracer.store(address, value, 8);
+        memory.storeDword(address, value);
+    }
+
+    @Override
+    public void visitPages(PageVisitor visitor) throws IOException
+    {
+        memory.visitPages(visitor);
+    }
+
+    @Override
+    public int getPageSize()
+    {
+        return memory.getPageSize();
+    }
+
+    @Override
+    public void flush()
+    {
+        memory.flush();
+    }
+    @Override
+    public String getStatistics()
+    {
+        return memory.getStatistics();
+    }
+}
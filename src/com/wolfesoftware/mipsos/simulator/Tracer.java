@@ -0,0 +1,310 @@
+package com.wolfesoftware.mipsos.simulator;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * records every instruction the simulator runs to a file. the simulator fills raw blocks and passes them around a
+ * ring to a writer thread, which compresses them and writes them out. the simulator only has to wait when the disk
+ * falls a whole ring behind.
+ * <p>
+ * the file is a magic number and a version, then blocks. each block is its raw length, its compressed length, the
+ * index of its first instruction, its instruction count, the pc of its first instruction, and registers 0-31, hi,
+ * and lo from before its first instruction, followed by its deflated records. every block starts fresh, so any
+ * block can be decoded without the ones before it.
+ * <p>
+ * each record is one instruction. it starts with a tag byte: bit 0 means the pc isn't the last pc + 4, bit 1 means
+ * there are memory writes, and bits 2-7 are how many registers changed. then comes the pc difference in words if
+ * bit 0 is set, then each changed register's number (32 for hi, 33 for lo) and difference from its old value, then
+ * the number of memory writes if bit 1 is set. each write has its address's difference from the last write's address,
+ * its length, and the bytes written. differences are zigzag varints. lengths and counts are plain varints.
+ */
+public class Tracer
+{
+    public static final int MAGIC_NUMBER = 0x74726163;
+    public static final int VERSION = 1;
+    /** registers 0-31, hi, and lo */
+    public static final int REGISTER_COUNT = 34;
+    public static final int HI = 32;
+    public static final int LO = 33;
+    public static final int TAG_JUMP = 1;
+    public static final int TAG_STORES = 2;
+    public static final int TAG_REGISTER_COUNT_SHIFT = 2;
+    /** a block gets handed off once its records get this big */
+    private static final int BLOCK_SIZE = 0x10000;
+    private static final int RING_SIZE = 8;
+
+    private static class Block
+    {
+        byte[] bytes = new byte[BLOCK_SIZE + 0x400];
+        int length;
+        long firstInstruction;
+        int instructionCount;
+        int pc;
+        final int[] registers = new int[REGISTER_COUNT];
+    }
+
+    private final DataOutputStream out;
+    private final Thread writerThread;
+    // the simulator fills blocks in order and the writer empties them in order. all guarded by the ring.
+    private final Block[] ring = new Block[RING_SIZE];
+    private long filled = 0;
+    private long written = 0;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    // everything else belongs to the simulator's thread
+    private Block block;
+    /** register values as of the last instruction */
+    private final int[] previous = new int[REGISTER_COUNT];
+    private boolean started = false;
+    private long instructionCount = 0;
+    private int pc;
+    private int nextPc;
+    private boolean inInstruction = false;
+    /** memory writes for the instruction in progress, already encoded */
+    private byte[] stores = new byte[0x400];
+    private int storesLength;
+    private int storeCount;
+    private int lastStoreAddress;
+    /** in case the instruction gets backed out */
+    private int startStoreAddress;
+
+    public Tracer(String path)
+    {
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 0x10000));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < RING_SIZE; i++)
+            ring[i] = new Block();
+        block = ring[0];
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                writerMain();
+            }
+        }, "tracer");
+        writerThread.start();
+    }
+
+    /** the registers only matter the first time */
+    void begin(int pc, int[] registers, int hi, int lo)
+    {
+        if (!started) {
+            System.arraycopy(registers, 0, previous, 0, 32);
+            previous[HI] = hi;
+            previous[LO] = lo;
+            started = true;
+        }
+        if (block.instructionCount == 0) {
+            // everything the block needs to be decoded by itself
+            block.firstInstruction = instructionCount;
+            block.pc = pc;
+            System.arraycopy(previous, 0, block.registers, 0, REGISTER_COUNT);
+            nextPc = pc;
+            lastStoreAddress = 0;
+        }
+        this.pc = pc;
+        startStoreAddress = lastStoreAddress;
+        storesLength = 0;
+        storeCount = 0;
+        inInstruction = true;
+    }
+    /** the instruction got backed out. it'll be back. */
+    void cancel()
+    {
+        lastStoreAddress = startStoreAddress;
+        inInstruction = false;
+    }
+    void store(int address, long value, int length)
+    {
+        if (!inInstruction)
+            return;
+        byte[] stores = startStore(address, length);
+        for (int i = 0; i < length; i++)
+            stores[storesLength + i] = (byte)(value >>> (8 * (length - 1 - i)));
+        storesLength += length;
+    }
+    void store(int address, byte[] bytes, int offset, int length)
+    {
+        if (!inInstruction)
+            return; // loading the program or restoring a snapshot
+        byte[] stores = startStore(address, length);
+        System.arraycopy(bytes, offset, stores, storesLength, length);
+        storesLength += length;
+    }
+    private byte[] startStore(int address, int length)
+    {
+        int needed = storesLength + 10 + length;
+        if (needed > stores.length)
+            stores = Arrays.copyOf(stores, Math.max(needed, stores.length * 2));
+        storesLength = writeVarint(stores, storesLength, zigzag(address - lastStoreAddress));
+        storesLength = writeVarint(stores, storesLength, length);
+        storeCount++;
+        lastStoreAddress = address;
+        return stores;
+    }
+    void end(int[] registers, int hi, int lo)
+    {
+        inInstruction = false;
+        int needed = block.length + 1 + 5 + REGISTER_COUNT * 6 + 5 + storesLength;
+        if (needed > block.bytes.length)
+            block.bytes = Arrays.copyOf(block.bytes, Math.max(needed, block.bytes.length * 2));
+        byte[] bytes = block.bytes;
+        int tagPosition = block.length;
+        int cursor = tagPosition + 1;
+        int tag = 0;
+        if (pc != nextPc) {
+            tag |= TAG_JUMP;
+            cursor = writeVarint(bytes, cursor, zigzag((pc - nextPc) >> 2));
+        }
+        int changedCount = 0;
+        // usually one register changes, if any. mismatch() is a lot faster than looking at them one at a time.
+        for (int i = 0; (i = mismatch(registers, i)) != -1; i++) {
+            cursor = writeRegister(bytes, cursor, i, registers[i]);
+            changedCount++;
+        }
+        if (hi != previous[HI]) {
+            cursor = writeRegister(bytes, cursor, HI, hi);
+            changedCount++;
+        }
+        if (lo != previous[LO]) {
+            cursor = writeRegister(bytes, cursor, LO, lo);
+            changedCount++;
+        }
+        if (storeCount != 0) {
+            tag |= TAG_STORES;
+            cursor = writeVarint(bytes, cursor, storeCount);
+            System.arraycopy(stores, 0, bytes, cursor, storesLength);
+            cursor += storesLength;
+        }
+        bytes[tagPosition] = (byte)(tag | changedCount << TAG_REGISTER_COUNT_SHIFT);
+        block.length = cursor;
+        block.instructionCount++;
+        instructionCount++;
+        nextPc = pc + 4;
+        if (block.length >= BLOCK_SIZE)
+            handOff();
+    }
+    /** the first general register at or after start that changed, or -1 */
+    private int mismatch(int[] registers, int start)
+    {
+        int offset = Arrays.mismatch(registers, start, 32, previous, start, 32);
+        return offset == -1 ? -1 : start + offset;
+    }
+    private int writeRegister(byte[] bytes, int cursor, int number, int value)
+    {
+        bytes[cursor++] = (byte)number;
+        cursor = writeVarint(bytes, cursor, zigzag(value - previous[number]));
+        previous[number] = value;
+        return cursor;
+    }
+    private void handOff()
+    {
+        synchronized (ring) {
+            filled++;
+            ring.notifyAll();
+            // wait for the next slot to be written out
+            while (filled - written == RING_SIZE && failure == null)
+                waitForRing();
+            if (failure != null)
+                throw new RuntimeException(failure);
+        }
+        block = ring[(int)(filled % RING_SIZE)];
+        block.length = 0;
+        block.instructionCount = 0;
+    }
+
+    /** writes out what's left and waits for it to hit the disk */
+    public void close()
+    {
+        synchronized (ring) {
+            if (closed)
+                return;
+            if (block.instructionCount != 0)
+                filled++;
+            closed = true;
+            ring.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if (failure != null)
+            throw new RuntimeException(failure);
+    }
+
+    private void writerMain()
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] buffer = new byte[0x4000];
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(BLOCK_SIZE);
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeInt(VERSION);
+            while (true) {
+                Block block;
+                synchronized (ring) {
+                    while (written == filled && !closed)
+                        waitForRing();
+                    if (written == filled)
+                        break;
+                    block = ring[(int)(written % RING_SIZE)];
+                }
+                compressed.reset();
+                deflater.reset();
+                deflater.setInput(block.bytes, 0, block.length);
+                deflater.finish();
+                while (!deflater.finished())
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                out.writeInt(block.length);
+                out.writeInt(compressed.size());
+                out.writeLong(block.firstInstruction);
+                out.writeInt(block.instructionCount);
+                out.writeInt(block.pc);
+                for (int register : block.registers)
+                    out.writeInt(register);
+                compressed.writeTo(out);
+                synchronized (ring) {
+                    written++;
+                    ring.notifyAll();
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            synchronized (ring) {
+                failure = e;
+                ring.notifyAll();
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+    private void waitForRing()
+    {
+        try {
+            ring.wait();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+    static int writeVarint(byte[] bytes, int cursor, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            bytes[cursor++] = (byte)(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        bytes[cursor++] = (byte)value;
+        return cursor;
+    }
+}